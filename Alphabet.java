@@ -1,16 +1,34 @@
 package enigma;
 
+import java.util.Arrays;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so an alphabet may include supplementary characters, which
+ *  take two chars (a surrogate pair) in a String; the methods taking or
+ *  returning a char work only with the others.
  *  @author Ziyi
  */
 class Alphabet {
     /** chars. */
-    private String _chars;
+    private int[] _chars;
     /** A new alphabet containing CHARS.  Character number #k has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        this._chars = chars;
+        this(chars.codePoints().toArray());
+    }
+
+    /** A new alphabet containing the characters whose code points are
+     *  CODEPOINTS, as for Alphabet(String). */
+    Alphabet(int[] codePoints) {
+        this._chars = codePoints.clone();
+        for (int cp : _chars) {
+            if (!Character.isValidCodePoint(cp)) {
+                throw EnigmaException.error("bad code point %d", cp);
+            }
+            _supplementary |= !Character.isBmpCodePoint(cp);
+        }
+        buildIndex();
         if (!checkalphaduplicate()) {
             throw EnigmaException.error("alphabet duplicate error");
         }
@@ -21,44 +39,168 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
-    /** Return alphabet duplication check. */
-    boolean checkalphaduplicate() {
-        for (int i = 0; i < _chars.length(); i++) {
-            for (int j = i + 1; j < _chars.length(); j++) {
-                if (_chars.charAt(i) == _chars.charAt(j)) {
-                    return false;
+    /** Return an alphabet of the BYTES byte values, as the characters
+     *  with those values, in order. */
+    static Alphabet bytes() {
+        char[] chars = new char[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            chars[i] = (char) i;
+        }
+        return new Alphabet(new String(chars));
+    }
+
+    /** Fill in my character-to-index table.  A direct table indexed by
+     *  character is used when my characters span a small range; otherwise
+     *  an open-addressed hash table.  When a character is repeated, only
+     *  its first occurrence is recorded. */
+    private void buildIndex() {
+        int n = _chars.length;
+        int low = Character.MAX_CODE_POINT, high = 0;
+        for (int i = 0; i < n; i++) {
+            low = Math.min(low, _chars[i]);
+            high = Math.max(high, _chars[i]);
+        }
+        if (n == 0 || high - low < Math.max(DENSE_SPAN, 4 * n)) {
+            _low = n == 0 ? 0 : low;
+            _dense = new int[n == 0 ? 0 : high - low + 1];
+            Arrays.fill(_dense, -1);
+            for (int i = n - 1; i >= 0; i--) {
+                _dense[_chars[i] - _low] = i;
+            }
+        } else {
+            int bits = 32 - Integer.numberOfLeadingZeros(2 * n - 1);
+            _shift = 32 - bits;
+            _keys = new int[1 << bits];
+            _slots = new int[1 << bits];
+            Arrays.fill(_slots, -1);
+            for (int i = 0; i < n; i++) {
+                int ch = _chars[i];
+                int h = slot(ch);
+                if (_slots[h] < 0) {
+                    _keys[h] = ch;
+                    _slots[h] = i;
                 }
             }
         }
+    }
+
+    /** Return the position of code point CH in my hash table: either the
+     *  slot holding CH or the empty slot where it would go. */
+    private int slot(int ch) {
+        int mask = _keys.length - 1;
+        int h = (ch * HASH_MULTIPLIER) >>> _shift;
+        while (_slots[h] >= 0 && _keys[h] != ch) {
+            h = (h + 1) & mask;
+        }
+        return h;
+    }
+
+    /** Return alphabet duplication check.  Uses my own table rather than
+     *  toIndex(), which subclasses may override, since it is called
+     *  before a subclass is initialized. */
+    boolean checkalphaduplicate() {
+        for (int i = 0; i < _chars.length; i++) {
+            if (lookup(_chars[i]) != i) {
+                return false;
+            }
+        }
         return true;
     }
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return _chars.length;
+    }
+
+    /** Returns true iff some of my characters are supplementary
+     *  characters, outside the Basic Multilingual Plane. */
+    boolean supplementary() {
+        return _supplementary;
     }
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
+        return toIndex(ch) >= 0;
+    }
 
-        for (int i = 0; i < size(); i++) {
-            if (_chars.charAt(i) == ch) {
-                return true;
+    /** Returns true iff my characters are exactly those whose values are
+     *  the BYTES byte values, in any order, so that each byte stands for
+     *  one of them.  Asks only size() and toCodePoint(), so that it holds
+     *  for subclasses that override them. */
+    boolean coversBytes() {
+        if (size() != BYTES) {
+            return false;
+        }
+        for (int i = 0; i < BYTES; i++) {
+            if (toCodePoint(i) >= BYTES) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-
-        return _chars.charAt(index);
+        int cp = toCodePoint(index);
+        if (!Character.isBmpCodePoint(cp)) {
+            throw EnigmaException.error("character %d is not a single char",
+                                        index);
+        }
+        return (char) cp;
     }
 
-    /** Returns the index of character preprocess(CH), which must be in
-     *  the alphabet. This is the inverse of toChar(). */
+    /** Returns the index of character CH, or -1 if CH is not in the
+     *  alphabet.  This is the inverse of toChar().  Subclasses keep to
+     *  the same contract, so callers may test the result instead of
+     *  calling contains() first. */
     int toInt(char ch) {
-        return _chars.indexOf(String.valueOf(ch));
+        return toIndex(ch);
     }
 
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _chars[index];
+    }
+
+    /** Returns the index of the character whose code point is CP, or -1
+     *  if it is not in the alphabet.  This is the inverse of
+     *  toCodePoint(), and takes constant time however large I am. */
+    int toIndex(int cp) {
+        return lookup(cp);
+    }
+
+    /** Returns the index of code point CP in my character-to-index
+     *  table, or -1 if it is not there. */
+    private int lookup(int cp) {
+        if (_dense != null) {
+            int k = cp - _low;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        return _slots[slot(cp)];
+    }
+
+    /** Number of byte values. */
+    static final int BYTES = 256;
+    /** Largest span of character values always indexed by a direct
+     *  table. */
+    private static final int DENSE_SPAN = 1024;
+    /** Multiplier used to hash characters into my table. */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /** True iff some of my characters are supplementary. */
+    private boolean _supplementary;
+    /** Smallest character in a directly indexed alphabet. */
+    private int _low;
+    /** _dense[c - _low] is the index of character c, or -1.  Null when
+     *  the hash table is in use. */
+    private int[] _dense;
+    /** Characters stored in each slot of the hash table. */
+    private int[] _keys;
+    /** Index of the character in each slot of the hash table, or -1 for
+     *  an empty slot. */
+    private int[] _slots;
+    /** Amount by which hashed characters are shifted to pick a slot. */
+    private int _shift;
+
 }
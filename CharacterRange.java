@@ -8,14 +8,17 @@ import static enigma.EnigmaException.*;
  */
 public class CharacterRange extends Alphabet {
 
-    /** An alphabet consisting of all characters between FIRST and LAST,
-     *  inclusive. */
-    public CharacterRange(char first, char last) {
+    /** An alphabet consisting of all characters between the code points
+     *  FIRST and LAST, inclusive. */
+    public CharacterRange(int first, int last) {
         _first = Character.toUpperCase(first);
         _last = Character.toUpperCase(last);
         if (_first > _last) {
             throw error("empty range of characters");
         }
+        if (!Character.isValidCodePoint(_last)) {
+            throw error("bad range of characters");
+        }
     }
 
     @Override
@@ -24,27 +27,24 @@ public class CharacterRange extends Alphabet {
     }
 
     @Override
-    boolean contains(char ch) {
-        return ch >= _first && ch <= _last;
+    boolean supplementary() {
+        return !Character.isBmpCodePoint(_last);
     }
 
     @Override
-    char toChar(int index) {
-        if (!contains((char) (_first + index))) {
+    int toCodePoint(int index) {
+        if (index < 0 || index >= size()) {
             throw error("character index out of range");
         }
-        return (char) (_first + index);
+        return _first + index;
     }
 
     @Override
-    int toInt(char ch) {
-        if (!contains(ch)) {
-            throw error("character out of range");
-        }
-        return ch - _first;
+    int toIndex(int cp) {
+        return cp >= _first && cp <= _last ? cp - _first : -1;
     }
 
     /** Range of characters in this Alphabet. */
-    private char _first, _last;
+    private int _first, _last;
 
 }
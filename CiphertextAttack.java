@@ -0,0 +1,266 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.EnigmaException.*;
+
+/** An attack on a ciphertext alone.  Every key of a KeySpace is first
+ *  ranked by the index of coincidence of the ciphertext decrypted with
+ *  no plugboard, which is higher the more of the rotors are right.  For
+ *  the best keys, a plugboard is then built by hill-climbing: pairs of
+ *  letters are repeatedly swapped while that improves the n-gram score of
+ *  the decryption.  Both stages run in parallel, each task with its own
+ *  cursor and working arrays, so that no objects are created while
+ *  decryptions are scored.
+ *  @author Ziyi
+ */
+class CiphertextAttack {
+
+    /** An attack over the keys of MACHINE, as for KeySpace, scoring
+     *  decryptions with SCORES. */
+    CiphertextAttack(Machine machine, NgramScore scores) {
+        _keys = new KeySpace(machine);
+        if (scores.alphabet().size() != _keys.alphabet().size()) {
+            throw error("n-gram table is for a different alphabet");
+        }
+        _scores = scores;
+    }
+
+    /** A key found by an attack, with its score. */
+    static final class Candidate {
+        /** A key with rotors named ROTORS at settings SETTING and
+         *  plugboard PLUGBOARD, whose decryption scores SCORE. */
+        Candidate(String[] rotors, String setting, String plugboard,
+                  double score) {
+            _rotors = rotors;
+            _setting = setting;
+            _plugboard = plugboard;
+            _score = score;
+        }
+
+        /** Return the names of the rotors, from the reflector on. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the rotor settings, as for Machine.setRotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the plugboard, in cycle notation. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return the n-gram score of the decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the settings line for this key. */
+        @Override
+        public String toString() {
+            String line = "* " + String.join(" ", _rotors) + " " + _setting;
+            return _plugboard.isEmpty() ? line : line + " " + _plugboard;
+        }
+
+        /** Rotor names. */
+        private final String[] _rotors;
+        /** Rotor settings. */
+        private final String _setting;
+        /** Plugboard cycles. */
+        private final String _plugboard;
+        /** Score of the decryption. */
+        private final double _score;
+    }
+
+    /** Return the KEEP keys that best decrypt CIPHERTEXT, best first,
+     *  working in parallel on POOL.  Blanks in CIPHERTEXT are ignored. */
+    List<Candidate> attack(String ciphertext, int keep, ForkJoinPool pool) {
+        int[] cipher = _keys.indices(ciphertext);
+        if (keep <= 0 || cipher.length < 2) {
+            throw error("nothing to attack");
+        }
+        long units = _keys.units();
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        ArrayList<Callable<long[]>> ranking = new ArrayList<>();
+        for (int k = 0; k < chunks; k += 1) {
+            long from = units * k / chunks, to = units * (k + 1) / chunks;
+            ranking.add(() -> rank(from, to, cipher, keep));
+        }
+        long[] best = new long[0];
+        for (long[] ranked : Machine.invokeAll(pool, ranking)) {
+            best = merge(best, ranked, keep);
+        }
+        ArrayList<Callable<Candidate>> climbs = new ArrayList<>();
+        for (int k = 0; k < best.length; k += RECORD) {
+            long unit = best[k + 1], index = best[k + 2];
+            climbs.add(() -> climb(unit, index, cipher));
+        }
+        ArrayList<Candidate> result =
+            new ArrayList<>(Machine.invokeAll(pool, climbs));
+        result.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return result;
+    }
+
+    /** Return the KEEP keys in units FROM .. TO-1 whose decryptions of
+     *  CIPHER without a plugboard have the highest indices of
+     *  coincidence, as RECORD longs each: the sum of f(f-1) over the
+     *  frequencies f of the letters, the unit, and the index within the
+     *  unit.  Records are in decreasing order of the sum. */
+    private long[] rank(long from, long to, int[] cipher, int keep) {
+        KeySpace.Cursor cursor = _keys.cursor();
+        int[] pos = new int[_keys.numRotors()];
+        int[] counts = new int[_keys.alphabet().size()];
+        long[] best = new long[keep * RECORD];
+        int size = 0;
+        for (long u = from; u < to; u += 1) {
+            cursor.select(u);
+            do {
+                Arrays.fill(counts, 0);
+                cursor.start(pos);
+                for (int c : cipher) {
+                    cursor.step(pos);
+                    counts[cursor.convert(c, pos)] += 1;
+                }
+                long sum = 0;
+                for (int f : counts) {
+                    sum += (long) f * (f - 1);
+                }
+                if (size < best.length || sum > best[size - RECORD]) {
+                    size = insert(best, size, sum, u, cursor.index());
+                }
+            } while (cursor.next());
+        }
+        return Arrays.copyOf(best, size);
+    }
+
+    /** Insert the record SUM, UNIT, INDEX into the first SIZE elements of
+     *  BEST, which are records in decreasing order of their first
+     *  elements, dropping the last record if BEST is full.  Returns the
+     *  new number of elements used. */
+    private static int insert(long[] best, int size, long sum, long unit,
+                              long index) {
+        int k = Math.min(size, best.length - RECORD);
+        while (k > 0 && best[k - RECORD] < sum) {
+            k -= RECORD;
+        }
+        int end = Math.min(size + RECORD, best.length);
+        System.arraycopy(best, k, best, k + RECORD, end - k - RECORD);
+        best[k] = sum;
+        best[k + 1] = unit;
+        best[k + 2] = index;
+        return end;
+    }
+
+    /** Return the records of A and B, each in decreasing order of their
+     *  first elements, merged in that order and cut to KEEP records. */
+    private static long[] merge(long[] a, long[] b, int keep) {
+        long[] result = new long[Math.min(a.length + b.length,
+                                          keep * RECORD)];
+        int i = 0, j = 0;
+        for (int k = 0; k < result.length; k += RECORD) {
+            if (j == b.length || (i < a.length && a[i] >= b[j])) {
+                System.arraycopy(a, i, result, k, RECORD);
+                i += RECORD;
+            } else {
+                System.arraycopy(b, j, result, k, RECORD);
+                j += RECORD;
+            }
+        }
+        return result;
+    }
+
+    /** Return the candidate made by hill-climbing a plugboard for key
+     *  INDEX of unit UNIT against CIPHER. */
+    private Candidate climb(long unit, long index, int[] cipher) {
+        int n = _keys.alphabet().size();
+        KeySpace.Cursor cursor = _keys.cursor();
+        cursor.select(unit, index);
+        int[] pos = new int[_keys.numRotors()];
+        int[] scrambler = new int[cipher.length * n];
+        cursor.start(pos);
+        for (int t = 0; t < cipher.length; t += 1) {
+            cursor.step(pos);
+            for (int c = 0; c < n; c += 1) {
+                scrambler[t * n + c] = cursor.convert(c, pos);
+            }
+        }
+        int[] plug = new int[n], text = new int[cipher.length];
+        for (int c = 0; c < n; c += 1) {
+            plug[c] = c;
+        }
+        double best = score(cipher, scrambler, plug, text);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < n; a += 1) {
+                for (int b = a + 1; b < n; b += 1) {
+                    int pa = plug[a], pb = plug[b];
+                    plug[pa] = pa;
+                    plug[pb] = pb;
+                    if (pa != b) {
+                        plug[a] = b;
+                        plug[b] = a;
+                    }
+                    double s = score(cipher, scrambler, plug, text);
+                    if (s > best) {
+                        best = s;
+                        improved = true;
+                    } else {
+                        plug[a] = pa;
+                        plug[pa] = a;
+                        plug[b] = pb;
+                        plug[pb] = b;
+                    }
+                }
+            }
+        }
+        return new Candidate(cursor.names(), cursor.setting(), cycles(plug),
+                             best);
+    }
+
+    /** Return the n-gram score of CIPHER decrypted with the per-letter
+     *  permutations SCRAMBLER and the plugboard PLUG, using TEXT as
+     *  working space. */
+    private double score(int[] cipher, int[] scrambler, int[] plug,
+                         int[] text) {
+        int n = plug.length;
+        for (int t = 0; t < cipher.length; t += 1) {
+            text[t] = plug[scrambler[t * n + plug[cipher[t]]]];
+        }
+        return _scores.score(text, text.length);
+    }
+
+    /** Return the swaps of the plugboard PLUG in cycle notation. */
+    private String cycles(int[] plug) {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < plug.length; c += 1) {
+            if (plug[c] > c) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(')
+                    .appendCodePoint(_keys.alphabet().toCodePoint(c))
+                    .appendCodePoint(_keys.alphabet().toCodePoint(plug[c]))
+                    .append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Number of longs in each record of a ranking. */
+    private static final int RECORD = 3;
+    /** Number of ranking tasks per thread of parallelism. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** The keys attacked. */
+    private final KeySpace _keys;
+    /** Scores of decryptions. */
+    private final NgramScore _scores;
+}
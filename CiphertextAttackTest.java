@@ -0,0 +1,58 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CiphertextAttack class.
+ *  @author Ziyi
+ */
+public class CiphertextAttackTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext of the test message, also used as the n-gram sample. */
+    private static final String PLAIN =
+        "IT WAS THE BEST OF TIMES IT WAS THE WORST OF TIMES IT WAS THE AGE "
+        + "OF WISDOM IT WAS THE AGE OF FOOLISHNESS IT WAS THE EPOCH OF "
+        + "BELIEF IT WAS THE EPOCH OF INCREDULITY IT WAS THE SEASON OF LIGHT "
+        + "IT WAS THE SEASON OF DARKNESS";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void scoreTest() {
+        NgramScore scores = new NgramScore(UPPER, 3, PLAIN);
+        int[] text = {UPPER.toInt('T'), UPPER.toInt('H'), UPPER.toInt('E')};
+        int[] scrambled = {UPPER.toInt('Q'), UPPER.toInt('X'),
+                           UPPER.toInt('Z')};
+        assertTrue(scores.score(text, 3) > scores.score(scrambled, 3));
+        assertEquals(0.0, scores.score(text, 2), 0.0);
+    }
+
+    @Test
+    public void attackTest() {
+        String plugs = "(AT) (OR)";
+        String cipher =
+            navalMachine(new String[] {"B", "III", "I", "II"}, "KEY", plugs)
+            .convert(PLAIN);
+        Machine machine =
+            navalMachine(new String[] {"B", "I", "II", "III"}, "AAA", "");
+        CiphertextAttack attack =
+            new CiphertextAttack(machine, new NgramScore(UPPER, 3, PLAIN));
+        List<CiphertextAttack.Candidate> found =
+            attack.attack(cipher, 3, ForkJoinPool.commonPool());
+        assertEquals(3, found.size());
+        assertEquals("* B III I II KEY " + plugs, found.get(0).toString());
+        assertTrue(found.get(0).score() >= found.get(1).score());
+    }
+}
@@ -0,0 +1,219 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of compiled machine configurations.  Each is kept in a binary
+ *  file in the cache directory, named by a hash of the configuration text
+ *  it was compiled from, and holds the alphabet, the machine's slot and
+ *  pawl counts, and each rotor's kind, name, notches and permutation
+ *  table, whose entries are bytes, chars or ints as the size of the
+ *  alphabet requires.
+ *  @author Ziyi
+ */
+class ConfigCache {
+
+    /** A cache kept in the directory named DIRECTORY. */
+    ConfigCache(String directory) {
+        _directory = Paths.get(directory);
+    }
+
+    /** Return a new machine compiled from configuration text CONFIG, or
+     *  null if it is not in the cache or its entry cannot be used. */
+    Machine get(byte[] config) {
+        byte[] hash = hash(config);
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(entry(hash)));
+        } catch (IOException excp) {
+            return null;
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[hash.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash)) {
+                return null;
+            }
+            Alphabet alphabet = new Alphabet(getString(in));
+            int numRotors = in.getInt(), pawls = in.getInt();
+            int count = in.getInt();
+            ArrayList<Rotor> rotors = new ArrayList<>();
+            for (int i = 0; i < count; i += 1) {
+                rotors.add(getRotor(in, alphabet));
+            }
+            if (in.hasRemaining()) {
+                return null;
+            }
+            return new Machine(alphabet, numRotors, pawls, rotors);
+        } catch (BufferUnderflowException | EnigmaException excp) {
+            return null;
+        }
+    }
+
+    /** Store MACHINE, whose available rotors are ALLROTORS, as compiled
+     *  from configuration text CONFIG.  Failures are ignored, since the
+     *  configuration can always be compiled again. */
+    void put(byte[] config, Machine machine, List<Rotor> allRotors) {
+        byte[] hash = hash(config);
+        Alphabet alphabet = machine.alphabet();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+            StringBuilder chars = new StringBuilder();
+            for (int i = 0; i < alphabet.size(); i += 1) {
+                chars.appendCodePoint(alphabet.toCodePoint(i));
+            }
+            putString(out, chars.toString());
+            out.writeInt(machine.numRotors());
+            out.writeInt(machine.numPawls());
+            out.writeInt(allRotors.size());
+            for (Rotor rotor : allRotors) {
+                putRotor(out, rotor);
+            }
+            Files.createDirectories(_directory);
+            Path temp = Files.createTempFile(_directory, "config", ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                Files.move(temp, entry(hash),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Write ROTOR to OUT. */
+    private static void putRotor(DataOutputStream out, Rotor rotor)
+        throws IOException {
+        if (rotor.rotates()) {
+            out.writeByte('M');
+        } else if (rotor.reflecting()) {
+            out.writeByte('R');
+        } else {
+            out.writeByte('N');
+        }
+        putString(out, rotor.name());
+        if (rotor instanceof MovingRotor) {
+            putString(out, ((MovingRotor) rotor).notches());
+        } else {
+            putString(out, "");
+        }
+        int n = rotor.size();
+        for (int k = 0; k < n; k += 1) {
+            int p = rotor.permutation().permute(k);
+            if (n <= BYTE_LIMIT) {
+                out.writeByte(p);
+            } else if (n <= CHAR_LIMIT) {
+                out.writeChar(p);
+            } else {
+                out.writeInt(p);
+            }
+        }
+    }
+
+    /** Return the rotor read from IN, whose alphabet is ALPHABET. */
+    private static Rotor getRotor(ByteBuffer in, Alphabet alphabet) {
+        byte kind = in.get();
+        String name = getString(in);
+        String notches = getString(in);
+        int n = alphabet.size();
+        int[] table = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            if (n <= BYTE_LIMIT) {
+                table[k] = in.get() & BYTE_MASK;
+            } else if (n <= CHAR_LIMIT) {
+                table[k] = in.getChar();
+            } else {
+                table[k] = in.getInt();
+            }
+        }
+        Permutation perm = new Permutation(table, alphabet);
+        switch (kind) {
+        case 'M':
+            return new MovingRotor(name, perm, notches);
+        case 'N':
+            return new FixedRotor(name, perm);
+        case 'R':
+            return new Reflector(name, perm);
+        default:
+            throw error("bad rotor kind in cache");
+        }
+    }
+
+    /** Write S to OUT, preceded by its length. */
+    private static void putString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return a string written by putString, read from IN. */
+    private static String getString(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0 || n > in.remaining() / 2) {
+            throw error("bad string in cache");
+        }
+        char[] chars = new char[n];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + 2 * n);
+        return new String(chars);
+    }
+
+    /** Return the path of the cache entry whose hash is HASH. */
+    private Path entry(byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) {
+            name.append(String.format("%02x", b));
+        }
+        return _directory.resolve(name.append(".cfg").toString());
+    }
+
+    /** Return the hash of configuration text CONFIG. */
+    static byte[] hash(byte[] config) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(config);
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+    }
+
+    /** First word of every cache file. */
+    private static final int MAGIC = 0x454e4947;
+    /** Version of the cache file format. */
+    private static final int VERSION = 1;
+    /** Largest alphabet whose permutation tables are stored as bytes. */
+    private static final int BYTE_LIMIT = 256;
+    /** Largest alphabet whose permutation tables are stored as chars;
+     *  larger ones are stored as ints. */
+    private static final int CHAR_LIMIT = 1 << 16;
+    /** Mask for reading bytes as unsigned values. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Directory holding my entries. */
+    private final Path _directory;
+}
@@ -0,0 +1,193 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.EnigmaException.*;
+
+/** A search for the keys under which a known piece of plaintext (a crib)
+ *  encrypts to part of a ciphertext.  Every key of a KeySpace is tried,
+ *  several at a time in the lanes of a KeyLanes, using the rotors'
+ *  precomputed tables directly and abandoning each group of keys once
+ *  none of them matches the crib.
+ *  @author Ziyi
+ */
+class CribSearch {
+
+    /** A search over the keys of MACHINE, as for KeySpace. */
+    CribSearch(Machine machine) {
+        _keys = new KeySpace(machine);
+    }
+
+    /** A key found by a search: the rotors and their settings at the start
+     *  of the ciphertext, and the position there of the crib. */
+    static final class Key {
+        /** A key with rotors named ROTORS at settings SETTING, placing
+         *  the crib at OFFSET. */
+        Key(String[] rotors, String setting, int offset) {
+            _rotors = rotors;
+            _setting = setting;
+            _offset = offset;
+        }
+
+        /** Return the names of the rotors, from the reflector on. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the rotor settings, as for Machine.setRotors. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the index of the crib's first letter in the ciphertext,
+         *  not counting blanks. */
+        int offset() {
+            return _offset;
+        }
+
+        /** Return the settings line for this key, without a plugboard. */
+        @Override
+        public String toString() {
+            return "* " + String.join(" ", _rotors) + " " + _setting;
+        }
+
+        /** Rotor names. */
+        private final String[] _rotors;
+        /** Rotor settings. */
+        private final String _setting;
+        /** Position of the crib. */
+        private final int _offset;
+    }
+
+    /** Return the keys, with plugboard PLUGBOARD, under which CRIB
+     *  encrypts to CIPHERTEXT at each position where it could, searching
+     *  in parallel on POOL.  Unless some reflector has a fixed point, the
+     *  positions tried are only those where no letter of the crib is the
+     *  same as the ciphertext letter under it, since no letter can then
+     *  encrypt to itself.  Blanks in CIPHERTEXT and CRIB are ignored. */
+    List<Key> search(String ciphertext, String crib, Permutation plugboard,
+                     ForkJoinPool pool) {
+        int[] cipher = _keys.indices(ciphertext), plain = _keys.indices(crib);
+        ArrayList<Key> found = new ArrayList<>();
+        for (int k = 0; k + plain.length <= cipher.length; k += 1) {
+            if (!_keys.derangements() || !contradicts(cipher, plain, k)) {
+                found.addAll(search(cipher, plain, k, plugboard, pool));
+            }
+        }
+        return found;
+    }
+
+    /** Return the keys, with plugboard PLUGBOARD, under which CRIB
+     *  encrypts to the letters of CIPHERTEXT starting at OFFSET,
+     *  searching in parallel on POOL.  Blanks in CIPHERTEXT and CRIB are
+     *  ignored. */
+    List<Key> search(String ciphertext, String crib, int offset,
+                     Permutation plugboard, ForkJoinPool pool) {
+        int[] cipher = _keys.indices(ciphertext), plain = _keys.indices(crib);
+        if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in ciphertext");
+        }
+        return search(cipher, plain, offset, plugboard, pool);
+    }
+
+    /** Return true iff some letter of CRIB placed at OFFSET in CIPHER
+     *  is the same as the one under it. */
+    static boolean contradicts(int[] cipher, int[] crib, int offset) {
+        for (int j = 0; j < crib.length; j += 1) {
+            if (crib[j] == cipher[offset + j]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the keys, with plugboard PLUGBOARD, under which CRIB
+     *  encrypts to CIPHER starting at OFFSET, searching on POOL.  The
+     *  units of my key space are divided evenly among the tasks. */
+    private List<Key> search(int[] cipher, int[] crib, int offset,
+                             Permutation plugboard, ForkJoinPool pool) {
+        int n = _keys.alphabet().size();
+        int[] plug = new int[n], unplug = new int[n];
+        for (int c = 0; c < n; c += 1) {
+            plug[c] = plugboard == null ? c : plugboard.permute(c);
+            unplug[plug[c]] = c;
+        }
+        long units = _keys.units();
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        ArrayList<Callable<List<Key>>> tasks = new ArrayList<>();
+        for (int k = 0; k < chunks; k += 1) {
+            long from = units * k / chunks, to = units * (k + 1) / chunks;
+            tasks.add(() -> searchUnits(from, to, cipher, crib, offset,
+                                        plug, unplug));
+        }
+        ArrayList<Key> found = new ArrayList<>();
+        for (List<Key> keys : Machine.invokeAll(pool, tasks)) {
+            found.addAll(keys);
+        }
+        return found;
+    }
+
+    /** Return the keys in units FROM .. TO-1 under which CRIB encrypts
+     *  to CIPHER starting at OFFSET, with the plugboard given by the
+     *  table PLUG and its inverse UNPLUG.  Keys are tried a lane's worth
+     *  at a time.  A short way into the ciphertext, the lanes are stepped
+     *  there together rather than seeking each key separately. */
+    private List<Key> searchUnits(long from, long to, int[] cipher,
+                                  int[] crib, int offset, int[] plug,
+                                  int[] unplug) {
+        KeySpace.Cursor cursor = _keys.cursor();
+        KeyLanes lanes = KeyLanes.create();
+        int[][] starts = new int[lanes.lanes()][_keys.numRotors()];
+        int[] pos = new int[_keys.numRotors()];
+        int[] in = new int[crib.length], out = new int[crib.length];
+        for (int j = 0; j < crib.length; j += 1) {
+            in[j] = plug[crib[j]];
+            out[j] = unplug[cipher[offset + j]];
+        }
+        ArrayList<Key> found = new ArrayList<>();
+        for (long u = from; u < to; u += 1) {
+            cursor.select(u);
+            lanes.select(cursor, _keys);
+            int used = 0;
+            boolean more;
+            do {
+                cursor.start(starts[used]);
+                if (offset > STEP_LIMIT) {
+                    System.arraycopy(starts[used], 0, pos, 0, pos.length);
+                    cursor.seek(pos, offset);
+                    lanes.set(used, pos);
+                } else {
+                    lanes.set(used, starts[used]);
+                }
+                used += 1;
+                more = cursor.next();
+                if (used == lanes.lanes() || !more) {
+                    if (offset <= STEP_LIMIT) {
+                        lanes.advance(offset);
+                    }
+                    int alive = lanes.match(in, out, crib.length, used);
+                    for (int lane = 0; lane < used; lane += 1) {
+                        if ((alive & (1 << lane)) != 0) {
+                            found.add(new Key(cursor.names(),
+                                              _keys.setting(starts[lane]),
+                                              offset));
+                        }
+                    }
+                    used = 0;
+                }
+            } while (more);
+        }
+        return found;
+    }
+
+    /** Largest offset reached by stepping all lanes. */
+    private static final int STEP_LIMIT = 8;
+    /** Number of tasks per thread of parallelism. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** The keys searched. */
+    private final KeySpace _keys;
+}
@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CribSearch class.
+ *  @author Ziyi
+ */
+public class CribSearchTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext of the test message. */
+    private static final String PLAIN =
+        "NOTHING TO REPORT FROM THE NORTHERN SECTOR";
+
+    /** Rotors used to encrypt the test message. */
+    private static final String[] ROTORS = {"C", "II", "III", "I"};
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void searchAtOffsetTest() {
+        String cipher = navalMachine(ROTORS, "EQV", "").convert(PLAIN);
+        CribSearch search = new CribSearch(navalMachine(ROTORS, "AAA", ""));
+        List<CribSearch.Key> keys =
+            search.search(cipher, "TOREPORTFROM", 7, null,
+                          ForkJoinPool.commonPool());
+        assertEquals(1, keys.size());
+        assertEquals("* C II III I EQV", keys.get(0).toString());
+        assertEquals(7, keys.get(0).offset());
+    }
+
+    @Test
+    public void searchWithPlugboardTest() {
+        String plugs = "(AT) (OR) (NS)";
+        String cipher = navalMachine(ROTORS, "ZDU", plugs).convert(PLAIN);
+        CribSearch search = new CribSearch(navalMachine(ROTORS, "AAA", ""));
+        List<CribSearch.Key> keys =
+            search.search(cipher, "NOTHINGTOREPORT", 0,
+                          new Permutation(plugs, UPPER),
+                          ForkJoinPool.commonPool());
+        assertEquals(1, keys.size());
+        assertEquals("ZDU", keys.get(0).setting());
+    }
+
+    @Test
+    public void searchAnyOffsetTest() {
+        String cipher = navalMachine(ROTORS, "MAR", "").convert(PLAIN);
+        CribSearch search = new CribSearch(navalMachine(ROTORS, "AAA", ""));
+        boolean found = false;
+        for (CribSearch.Key key
+                 : search.search(cipher, "NORTHERNSECTOR", null,
+                                 ForkJoinPool.commonPool())) {
+            found |= key.toString().equals("* C II III I MAR")
+                && key.offset() == 22;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void contradictionTest() {
+        int[] cipher = {0, 1, 2, 3};
+        assertTrue(CribSearch.contradicts(cipher, new int[] {5, 1}, 0));
+        assertFalse(CribSearch.contradicts(cipher, new int[] {5, 1}, 2));
+    }
+
+    /** Check that LANES step and convert each lane as a machine with the
+     *  same rotors and settings would. */
+    private void checkLanes(KeyLanes lanes) {
+        KeySpace keys = new KeySpace(navalMachine(ROTORS, "AAA", ""));
+        KeySpace.Cursor cursor = keys.cursor();
+        cursor.select(keys.units() - 1);
+        lanes.select(cursor, keys);
+        Machine[] machines = new Machine[lanes.lanes()];
+        for (int lane = 0; lane < lanes.lanes(); lane += 1) {
+            int[] pos = {0, 3 + lane % 3, 20 + lane % 4, lane % 26};
+            lanes.set(lane, pos);
+            machines[lane] = navalMachine(cursor.names(), keys.setting(pos),
+                                          "");
+        }
+        int[] out = new int[lanes.lanes()];
+        for (int k = 0; k < 2 * UPPER.size() * UPPER.size(); k += 1) {
+            int c = k % UPPER.size();
+            lanes.step();
+            lanes.convert(c, out);
+            for (int lane = 0; lane < lanes.lanes(); lane += 1) {
+                assertEquals(machines[lane].convert(c), out[lane]);
+            }
+        }
+    }
+
+    @Test
+    public void lanesTest() {
+        checkLanes(new KeyLanes(KeyLanes.MAX_LANES));
+        checkLanes(KeyLanes.create());
+    }
+}
@@ -0,0 +1,70 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Java Flight Recorder events for the work done by Main and by machines.
+ *  Each is begun before the work and committed after it, with its fields
+ *  set only once shouldCommit() has said the event is wanted, so that a
+ *  disabled event costs no more than its begin and shouldCommit calls.
+ *  @author Ziyi
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Loading of a machine configuration. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    @Description("Reading or fetching a compiled machine configuration")
+    static final class ConfigLoadEvent extends Event {
+        /** Name of the configuration file. */
+        @Label("Configuration")
+        String config;
+
+        /** Number of rotor slots of the machine loaded. */
+        @Label("Rotors")
+        int rotors;
+    }
+
+    /** Setting up a machine from a settings line. */
+    @Name("enigma.Setup")
+    @Label("Setup")
+    @Category("Enigma")
+    @Description("Applying a settings line to a machine")
+    static final class SetupEvent extends Event {
+        /** Length of the settings line. */
+        @Label("Settings Length")
+        int length;
+
+        /** Number of rotor slots of the machine. */
+        @Label("Rotors")
+        int rotors;
+
+        /** True iff the settings line was rejected. */
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /** One bulk conversion by a machine: a message line, a buffer of
+     *  streamed input or a buffer of bytes. */
+    @Name("enigma.Convert")
+    @Label("Conversion")
+    @Category("Enigma")
+    @Description("Converting a message line or a buffer of input")
+    static final class ConvertEvent extends Event {
+        /** Number of characters or bytes of input converted. */
+        @Label("Length")
+        int length;
+
+        /** Number of rotor slots of the machine. */
+        @Label("Rotors")
+        int rotors;
+    }
+}
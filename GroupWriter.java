@@ -0,0 +1,146 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.EnigmaException.*;
+
+/** Writes converted messages to a channel in groups of characters
+ *  separated by blanks, encoding them straight into a reusable byte
+ *  buffer that is written out in large blocks.  A surrogate pair counts
+ *  as one character and is never split.
+ *  @author Ziyi
+ */
+class GroupWriter {
+
+    /** A writer to OUTPUT that encodes characters with CHARSET, separates
+     *  groups of GROUPSIZE characters with a blank, and starts a new line
+     *  after every LINEWIDTH characters of a message (never, if LINEWIDTH
+     *  is 0).  LINEWIDTH must be a multiple of GROUPSIZE, so that lines
+     *  break only between whole groups. */
+    GroupWriter(WritableByteChannel output, Charset charset, int groupSize,
+                int lineWidth) {
+        if (groupSize <= 0 || lineWidth < 0) {
+            throw error("bad group size or line width");
+        }
+        if (lineWidth % groupSize != 0) {
+            throw error("line width %d is not a multiple of group size %d",
+                        lineWidth, groupSize);
+        }
+        _output = output;
+        _groupSize = groupSize;
+        _lineWidth = lineWidth;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        _pending = CharBuffer.allocate(2);
+        byte[] ascii = new byte[ASCII];
+        for (int i = 0; i < ASCII; i += 1) {
+            ascii[i] = (byte) i;
+        }
+        _ascii = new String(ascii, charset).equals(
+            new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    /** A writer to OUTPUT in the default character set, with groups of
+     *  five characters and no limit on line length. */
+    GroupWriter(WritableByteChannel output) {
+        this(output, Charset.defaultCharset(), 5, 0);
+    }
+
+    /** Write TEXT[FROM .. TO-1], the next characters of the current
+     *  message line. */
+    void write(char[] text, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            if (_bytes.remaining() < SLACK) {
+                flush();
+            }
+            if (_afterHigh && Character.isLowSurrogate(text[i])) {
+                put(text[i]);
+                _afterHigh = false;
+                continue;
+            }
+            if (_count == _lineWidth && _count > 0) {
+                put('\n');
+                _count = 0;
+            } else if (_count > 0 && _count % _groupSize == 0) {
+                put(' ');
+            }
+            put(text[i]);
+            _count += 1;
+            _afterHigh = Character.isHighSurrogate(text[i]);
+        }
+    }
+
+    /** End the current message line. */
+    void endLine() {
+        if (_bytes.remaining() < SLACK) {
+            flush();
+        }
+        put('\n');
+        _count = 0;
+        _afterHigh = false;
+    }
+
+    /** Write out everything written to me so far. */
+    void flush() {
+        _bytes.flip();
+        try {
+            while (_bytes.hasRemaining()) {
+                _output.write(_bytes);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _bytes.clear();
+    }
+
+    /** Add CH to my buffer. */
+    private void put(char ch) {
+        if (_ascii && ch < ASCII && _pending.position() == 0) {
+            _bytes.put((byte) ch);
+            return;
+        }
+        _pending.put(ch);
+        _pending.flip();
+        _encoder.encode(_pending, _bytes, false);
+        _pending.compact();
+    }
+
+    /** Size of my byte buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Space kept free in my byte buffer for the encoding of one
+     *  character and the separator before it. */
+    private static final int SLACK = 16;
+    /** Number of ASCII characters. */
+    private static final int ASCII = 128;
+
+    /** Where my output goes. */
+    private final WritableByteChannel _output;
+    /** Number of characters in each group. */
+    private final int _groupSize;
+    /** Number of characters on each full line, or 0 for no limit. */
+    private final int _lineWidth;
+    /** Encoder for characters that are not written directly. */
+    private final CharsetEncoder _encoder;
+    /** True iff my character set writes ASCII characters as single
+     *  bytes with the same values. */
+    private final boolean _ascii;
+    /** Encoded output not yet written. */
+    private final ByteBuffer _bytes;
+    /** Characters waiting to be encoded, such as the first half of a
+     *  surrogate pair. */
+    private final CharBuffer _pending;
+    /** Number of message characters written on the current line. */
+    private int _count;
+    /** True iff the last character written was a high surrogate. */
+    private boolean _afterHigh;
+}
@@ -0,0 +1,165 @@
+package enigma;
+
+/** A set of lanes, each holding the rotor settings of one key from a
+ *  unit of a KeySpace, that are stepped and used to convert together, as
+ *  Machine.convert(int) does for a single key.  This class does the work
+ *  one lane at a time; create() supplies a vectorized version instead
+ *  when the JDK's incubating vector module is available.
+ *  @author Ziyi
+ */
+class KeyLanes {
+
+    /** A scalar set of LANES lanes, at most MAX_LANES. */
+    KeyLanes(int lanes) {
+        _lanes = lanes;
+    }
+
+    /** Return the fastest available lanes: vectorized ones if the module
+     *  jdk.incubator.vector is present, and otherwise scalar ones. */
+    static KeyLanes create() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return (KeyLanes) Class.forName(VECTOR_LANES)
+                    .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError excp) {
+                return new KeyLanes(SCALAR_LANES);
+            }
+        }
+        return new KeyLanes(SCALAR_LANES);
+    }
+
+    /** Return my number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Use the rotors and tables of CURSOR's current unit of KEYS, which
+     *  the settings later given to set() must come from. */
+    void select(KeySpace.Cursor cursor, KeySpace keys) {
+        int k = keys.numRotors();
+        _n = keys.alphabet().size();
+        _fixed = keys.fixed();
+        _core = cursor.core();
+        _forward = new int[k][];
+        _backward = new int[k][];
+        _notches = new int[k][];
+        if (_pos == null || _pos.length != k) {
+            _pos = new int[k][_lanes];
+        }
+        for (int i = _fixed; i < k; i += 1) {
+            _forward[i] = cursor.forwardTable(i);
+            _backward[i] = cursor.backwardTable(i);
+            _notches[i] = cursor.notchTable(i);
+        }
+    }
+
+    /** Set the settings of my lane LANE to POS. */
+    void set(int lane, int[] pos) {
+        for (int i = _fixed; i < pos.length; i += 1) {
+            _pos[i][lane] = pos[i];
+        }
+    }
+
+    /** Advance the settings in each of my lanes as for one keypress. */
+    void step() {
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            step(lane);
+        }
+    }
+
+    /** Advance the settings in each of my lanes as for N keypresses. */
+    void advance(int n) {
+        for (int j = 0; j < n; j += 1) {
+            step();
+        }
+    }
+
+    /** Set OUT[lane] to the conversion of index C in each lane, without a
+     *  plugboard and without stepping. */
+    void convert(int c, int[] out) {
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            out[lane] = convert(c, lane);
+        }
+    }
+
+    /** Step and convert COUNT times, the j-th time converting IN[j] in
+     *  lanes 0 .. USED-1, and return a mask with bit L set iff lane L
+     *  converted every IN[j] to OUT[j].  Each lane stops at its first
+     *  mismatch, so the settings left in my lanes are unspecified. */
+    int match(int[] in, int[] out, int count, int used) {
+        int alive = 0;
+        for (int lane = 0; lane < used; lane += 1) {
+            int j;
+            for (j = 0; j < count; j += 1) {
+                step(lane);
+                if (convert(in[j], lane) != out[j]) {
+                    break;
+                }
+            }
+            if (j == count) {
+                alive |= 1 << lane;
+            }
+        }
+        return alive;
+    }
+
+    /** Advance the settings in lane LANE as for one keypress, just as
+     *  Machine.advance does. */
+    private void step(int lane) {
+        int last = _pos.length - 1;
+        boolean fastMoved = false;
+        for (int i = last; i > _fixed; i -= 1) {
+            if (_notches[i][_pos[i][lane]] == 0) {
+                fastMoved |= i == last;
+                _pos[i][lane] = next(_pos[i][lane]);
+                _pos[i - 1][lane] = next(_pos[i - 1][lane]);
+            }
+        }
+        if (!fastMoved) {
+            _pos[last][lane] = next(_pos[last][lane]);
+        }
+    }
+
+    /** Return the conversion of index C in lane LANE. */
+    private int convert(int c, int lane) {
+        int k = _pos.length;
+        int x = c;
+        for (int i = k - 1; i >= _fixed; i -= 1) {
+            x = _forward[i][_pos[i][lane] * _n + x];
+        }
+        x = _core[x];
+        for (int i = _fixed; i < k; i += 1) {
+            x = _backward[i][_pos[i][lane] * _n + x];
+        }
+        return x;
+    }
+
+    /** Return the setting after P. */
+    private int next(int p) {
+        return p + 1 == _n ? 0 : p + 1;
+    }
+
+    /** Largest number of lanes. */
+    static final int MAX_LANES = 32;
+    /** Number of lanes of scalar lanes. */
+    private static final int SCALAR_LANES = 16;
+    /** Name of the vector module. */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    /** Name of the vectorized subclass. */
+    private static final String VECTOR_LANES = "enigma.VectorKeyLanes";
+
+    /** Number of lanes. */
+    private final int _lanes;
+    /** Alphabet size. */
+    protected int _n;
+    /** Number of leading slots whose rotors do not move. */
+    protected int _fixed;
+    /** Combined permutation of the rotors that do not move. */
+    protected int[] _core;
+    /** Conversion tables of the moving rotors, by slot. */
+    protected int[][] _forward, _backward;
+    /** Notch distance tables of the moving rotors, by slot. */
+    protected int[][] _notches;
+    /** Settings of the moving rotors, by slot and lane. */
+    protected int[][] _pos;
+}
@@ -0,0 +1,326 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The keys that can be set on a machine: every valid choice of rotors
+ *  from its available rotors for its slots, and every setting of those
+ *  rotors.  Keys are grouped into units, each a choice of rotors and of
+ *  settings for the rotors that do not move, so that work can be divided
+ *  among threads, each examining its units through its own Cursor.
+ *  @author Ziyi
+ */
+class KeySpace {
+
+    /** The keys of MACHINE, which supplies the available rotors, the
+     *  alphabet and the numbers of slots and pawls.  Slot 0 of each key
+     *  holds a reflector, the next numRotors() - numPawls() - 1 slots
+     *  hold rotors that neither move nor reflect, and the remaining slots
+     *  hold moving rotors, with no rotor used twice. */
+    KeySpace(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _fixed = machine.numRotors() - machine.numPawls();
+        _orders = new ArrayList<>();
+        addOrders(new Rotor[machine.numRotors()], 0);
+        boolean derangements = true;
+        for (Rotor rotor : machine.availableRotors()) {
+            if (rotor.reflecting() && hasFixedPoint(rotor.permutation())) {
+                derangements = false;
+            }
+        }
+        _derangements = derangements;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots in my keys. */
+    int numRotors() {
+        return _machine.numRotors();
+    }
+
+    /** Return the number of leading slots whose rotors do not move. */
+    int fixed() {
+        return _fixed;
+    }
+
+    /** Return the number of my units. */
+    long units() {
+        return _orders.size() * power(_alphabet.size(), _fixed - 1);
+    }
+
+    /** Return true iff no available reflector maps a letter to itself, so
+     *  that no key does. */
+    boolean derangements() {
+        return _derangements;
+    }
+
+    /** Return the indices in my alphabet of the characters of TEXT,
+     *  ignoring blanks and case. */
+    int[] indices(String text) {
+        int[] letters = text.replace(" ", "").toUpperCase().codePoints()
+            .toArray();
+        int[] result = new int[letters.length];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _alphabet.toIndex(letters[i]);
+            if (result[i] < 0) {
+                throw error("character %c not in alphabet", letters[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Return a new cursor over my keys. */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** A position in a KeySpace, with the tables and working storage for
+     *  converting with the key there.  A cursor is used by one thread at
+     *  a time. */
+    final class Cursor {
+
+        /** A cursor, which must be given a unit by select before use. */
+        private Cursor() {
+            int n = _alphabet.size(), k = _machine.numRotors();
+            _stepper = new Machine(_machine);
+            _core = new int[n];
+            _start = new int[k];
+            _forward = new int[k][];
+            _backward = new int[k][];
+            _notches = new int[k][];
+        }
+
+        /** Move to the first key of unit UNIT, in which the moving rotors
+         *  are all at setting 0. */
+        void select(long unit) {
+            int n = _alphabet.size(), k = _start.length;
+            long fixedSettings = power(n, _fixed - 1);
+            if (unit / fixedSettings != _order) {
+                _order = (int) (unit / fixedSettings);
+                _rotors = _orders.get(_order);
+                _names = new String[k];
+                for (int i = 0; i < k; i += 1) {
+                    _names[i] = _rotors[i].name();
+                    _forward[i] = _rotors[i].forwardTable();
+                    _backward[i] = _rotors[i].backwardTable();
+                    if (i >= _fixed && _forward[i] == null) {
+                        throw error("alphabet too large to search");
+                    }
+                    _notches[i] = new int[n];
+                    for (int s = 0; s < n; s += 1) {
+                        _notches[i][s] = _rotors[i].notchDistance(s);
+                    }
+                }
+                _stepper.insertRotors(_names);
+            }
+            _unit = unit;
+            Arrays.fill(_start, 0);
+            long settings = unit % fixedSettings;
+            for (int i = _fixed - 1; i >= 1; i -= 1) {
+                _start[i] = (int) (settings % n);
+                settings /= n;
+            }
+            for (int c = 0; c < n; c += 1) {
+                int x = c;
+                for (int i = _fixed - 1; i >= 0; i -= 1) {
+                    x = _rotors[i].convertForward(x, _start[i]);
+                }
+                for (int i = 1; i < _fixed; i += 1) {
+                    x = _rotors[i].convertBackward(x, _start[i]);
+                }
+                _core[c] = x;
+            }
+            _index = 0;
+        }
+
+        /** Move to the next key in my unit, the rightmost rotor changing
+         *  fastest, returning false if there is none. */
+        boolean next() {
+            for (int i = _start.length - 1; i >= _fixed; i -= 1) {
+                _start[i] += 1;
+                if (_start[i] < _alphabet.size()) {
+                    _index += 1;
+                    return true;
+                }
+                _start[i] = 0;
+            }
+            return false;
+        }
+
+        /** Move to key number INDEX of unit UNIT, as counted by next(). */
+        void select(long unit, long index) {
+            select(unit);
+            long rest = index;
+            for (int i = _start.length - 1; i >= _fixed; i -= 1) {
+                _start[i] = (int) (rest % _alphabet.size());
+                rest /= _alphabet.size();
+            }
+            _index = index;
+        }
+
+        /** Return my unit. */
+        long unit() {
+            return _unit;
+        }
+
+        /** Return the number of my key within my unit. */
+        long index() {
+            return _index;
+        }
+
+        /** Set POS to the rotor settings of my key. */
+        void start(int[] pos) {
+            System.arraycopy(_start, 0, pos, 0, _start.length);
+        }
+
+        /** Advance the rotor settings POS as for one keypress. */
+        void step(int[] pos) {
+            _stepper.advance(pos);
+        }
+
+        /** Advance the rotor settings POS as for N keypresses. */
+        void seek(int[] pos, long n) {
+            _stepper.seek(pos, n);
+        }
+
+        /** Return the conversion of index C by my rotors at settings POS,
+         *  without a plugboard. */
+        int convert(int c, int[] pos) {
+            int n = _alphabet.size(), k = _start.length;
+            for (int i = k - 1; i >= _fixed; i -= 1) {
+                c = _forward[i][pos[i] * n + c];
+            }
+            c = _core[c];
+            for (int i = _fixed; i < k; i += 1) {
+                c = _backward[i][pos[i] * n + c];
+            }
+            return c;
+        }
+
+        /** Return the combined permutation of my rotors that do not
+         *  move, entered from the right and left again to the right. */
+        int[] core() {
+            return _core;
+        }
+
+        /** Return the forward conversion table of my rotor in slot I, as
+         *  for Rotor.forwardTable(). */
+        int[] forwardTable(int i) {
+            return _forward[i];
+        }
+
+        /** Return the backward conversion table of my rotor in slot I, as
+         *  for Rotor.backwardTable(). */
+        int[] backwardTable(int i) {
+            return _backward[i];
+        }
+
+        /** Return the table of notchDistance(s) of my rotor in slot I,
+         *  indexed by setting s. */
+        int[] notchTable(int i) {
+            return _notches[i];
+        }
+
+        /** Return the names of my rotors, from the reflector on. */
+        String[] names() {
+            return _names.clone();
+        }
+
+        /** Return my rotor settings, as for Machine.setRotors. */
+        String setting() {
+            return KeySpace.this.setting(_start);
+        }
+
+        /** Machine used for stepping rotor settings. */
+        private final Machine _stepper;
+        /** The combined permutation of my rotors that do not move, entered
+         *  from the right and left again to the right. */
+        private final int[] _core;
+        /** Rotor settings of my key. */
+        private final int[] _start;
+        /** Conversion tables of my rotors. */
+        private final int[][] _forward, _backward;
+        /** Notch distance tables of my rotors. */
+        private final int[][] _notches;
+        /** Index in _orders of my rotors, or -1 if none yet. */
+        private int _order = -1;
+        /** My rotors. */
+        private Rotor[] _rotors;
+        /** Names of my rotors. */
+        private String[] _names;
+        /** My unit. */
+        private long _unit;
+        /** Number of my key within my unit. */
+        private long _index;
+    }
+
+    /** Return the settings string for rotor settings POS, as for
+     *  Machine.setRotors. */
+    String setting(int[] pos) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < pos.length; i += 1) {
+            result.appendCodePoint(_alphabet.toCodePoint(pos[i]));
+        }
+        return result.toString();
+    }
+
+    /** Add to _orders every valid way of filling the slots of ROTORS
+     *  from slot I on, keeping those before I. */
+    private void addOrders(Rotor[] rotors, int i) {
+        if (i == rotors.length) {
+            _orders.add(rotors.clone());
+            return;
+        }
+        for (Rotor rotor : _machine.availableRotors()) {
+            boolean fits;
+            if (i == 0) {
+                fits = rotor.reflecting();
+            } else if (i < _fixed) {
+                fits = !rotor.reflecting() && !rotor.rotates();
+            } else {
+                fits = rotor.rotates();
+            }
+            if (fits && !Arrays.asList(rotors).subList(0, i).contains(rotor)) {
+                rotors[i] = rotor;
+                addOrders(rotors, i + 1);
+            }
+        }
+        rotors[i] = null;
+    }
+
+    /** Return true iff PERM maps some index to itself. */
+    private static boolean hasFixedPoint(Permutation perm) {
+        for (int c = 0; c < perm.size(); c += 1) {
+            if (perm.permute(c) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return N to the power E. */
+    static long power(int n, int e) {
+        long result = 1;
+        for (int i = 0; i < e; i += 1) {
+            result *= n;
+        }
+        return result;
+    }
+
+    /** Machine supplying the rotors, alphabet and slots. */
+    private final Machine _machine;
+    /** Common alphabet of the rotors. */
+    private final Alphabet _alphabet;
+    /** Number of leading slots whose rotors do not move. */
+    private final int _fixed;
+    /** Every valid choice of rotors for the slots. */
+    private final ArrayList<Rotor[]> _orders;
+    /** True iff no reflector maps a letter to itself. */
+    private final boolean _derangements;
+}
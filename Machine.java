@@ -1,12 +1,26 @@
 package enigma;
 
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The settings of its
+ *  rotors belong to the machine rather than to the rotors, which it never
+ *  changes, so machines made from the same rotors are independent.
  *  @author Ziyi
  */
 class Machine {
@@ -19,8 +33,36 @@ class Machine {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors.toArray();
+        _allRotors = new LinkedHashMap<>();
+        for (Rotor rotor : allRotors) {
+            _allRotors.put(rotor.name(), rotor);
+        }
         _rotors = new Rotor[_numRotors];
+        _pos = new int[_numRotors];
+        _run = new int[alpha.size()];
+        _scratch = new int[alpha.size()];
+    }
+
+    /** A new machine with the same available rotors, rotors in its slots,
+     *  rotor settings and plugboard as MACHINE.  It shares MACHINE's
+     *  rotors and compiled tables, but steps independently of it, so the
+     *  two may be used on different threads. */
+    Machine(Machine machine) {
+        _alphabet = machine._alphabet;
+        _numRotors = machine._numRotors;
+        _pawls = machine._pawls;
+        _allRotors = machine._allRotors;
+        _rotors = machine._rotors.clone();
+        _pos = machine._pos.clone();
+        _plugboard = machine._plugboard;
+        _fixed = machine._fixed;
+        _plug = machine._plug;
+        _core = machine._core;
+        _total = machine._total;
+        _entry = machine._entry;
+        _exit = machine._exit;
+        _run = new int[_alphabet.size()];
+        _scratch = new int[_alphabet.size()];
     }
 
     /** Return the number of rotor slots I have. */
@@ -28,77 +70,400 @@ class Machine {
         return _numRotors;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /** Return the number pawls (and thus rotating rotors) I have. */
     int numPawls() {
         return _pawls;
     }
 
+    /** Return all my available rotors, in the order I was given them. */
+    Collection<Rotor> availableRotors() {
+        return Collections.unmodifiableCollection(_allRotors.values());
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        if (_rotors.length != rotors.length) {
+            throw new EnigmaException("Misnamed rotors");
+        }
         for (int i = 0; i < rotors.length; i++) {
-            for (int j = 0; j < _allRotors.length; j++) {
-                if (rotors[i].equals(((Rotor) _allRotors[j]).name())) {
-                    _rotors[i] = (Rotor) _allRotors[j];
-                }
+            Rotor rotor = _allRotors.get(rotors[i]);
+            if (rotor == null) {
+                throw new EnigmaException("Misnamed rotors");
             }
+            _rotors[i] = rotor;
         }
-        if (_rotors.length != rotors.length) {
-            throw new EnigmaException("Misnamed rotors");
+        Arrays.fill(_pos, 0);
+        _core = null;
+    }
+
+    /** Return a record of my current rotors, their settings, my plugboard
+     *  and the tables compiled from them, which restore() can later
+     *  reinstate without recompiling. */
+    Assembly assembly() {
+        if (_core == null) {
+            compile();
         }
+        return new Assembly(_rotors.clone(), _pos.clone(), _plugboard, _fixed,
+                            _plug, _core, _total, _entry, _exit);
+    }
+
+    /** Return my rotors, rotor settings and plugboard to those recorded
+     *  in ASSEMBLY, which must have come from assembly() on me. */
+    void restore(Assembly assembly) {
+        System.arraycopy(assembly._rotors, 0, _rotors, 0, _rotors.length);
+        System.arraycopy(assembly._settings, 0, _pos, 0, _pos.length);
+        _plugboard = assembly._plugboard;
+        _fixed = assembly._fixed;
+        _plug = assembly._plug;
+        _core = assembly._core;
+        _total = assembly._total;
+        _entry = assembly._entry;
+        _exit = assembly._exit;
+    }
+
+    /** A machine's rotors, their settings, its plugboard and the tables
+     *  compiled from them, as recorded by assembly().  The tables are
+     *  never modified, so they are shared rather than copied. */
+    static final class Assembly {
+        /** An assembly of rotors ROTORS at settings SETTINGS, with
+         *  plugboard PLUGBOARD, FIXED static rotors, and compiled tables
+         *  PLUG, CORE, TOTAL, ENTRY and EXIT. */
+        private Assembly(Rotor[] rotors, int[] settings,
+                         Permutation plugboard, int fixed, int[] plug,
+                         int[] core, int[] total, int[] entry, int[] exit) {
+            _rotors = rotors;
+            _settings = settings;
+            _plugboard = plugboard;
+            _fixed = fixed;
+            _plug = plug;
+            _core = core;
+            _total = total;
+            _entry = entry;
+            _exit = exit;
+        }
+
+        /** Rotors in each slot. */
+        private final Rotor[] _rotors;
+        /** Setting of each rotor. */
+        private final int[] _settings;
+        /** The plugboard. */
+        private final Permutation _plugboard;
+        /** Number of leading rotors that cannot move. */
+        private final int _fixed;
+        /** Compiled tables, as for the Machine fields of the same names. */
+        private final int[] _plug, _core, _total, _entry, _exit;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        if (setting.length() != _rotors.length - 1) {
+        int[] points = setting.codePoints().toArray();
+        if (points.length != _rotors.length - 1) {
             throw new EnigmaException("Initial positions string wrong length");
         }
         for (int i = 1; i < _rotors.length; i++) {
-            if (!_alphabet.contains(setting.charAt(i - 1))) {
+            if (_alphabet.toIndex(points[i - 1]) < 0) {
                 throw new EnigmaException("Initial string not in alphabet");
             }
-            _rotors[i].set(setting.charAt(i - 1)); }
+            _pos[i] = _alphabet.toIndex(points[i - 1]);
+        }
+        compile();
+    }
+
+    /** Return the current setting of the rotor in my slot I. */
+    int setting(int i) {
+        return _pos[i];
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        compile();
+    }
+
+    /** Precompute the tables used by convert(int) for my current rotors,
+     *  rotor settings and plugboard.  The leading rotors that cannot
+     *  move, including the reflector, are fused into a single
+     *  permutation, and the plugboard is folded into the conversions of
+     *  the rightmost rotor. */
+    private void compile() {
+        int n = _alphabet.size();
+        _plug = new int[n];
+        for (int c = 0; c < n; c++) {
+            _plug[c] = _plugboard == null ? c : _plugboard.permute(c);
+        }
+        _fixed = 0;
+        while (_fixed < _rotors.length && !_rotors[_fixed].rotates()) {
+            _fixed += 1;
+        }
+        _core = new int[n];
+        for (int c = 0; c < n; c++) {
+            int x = c;
+            for (int i = _fixed - 1; i >= 0; i--) {
+                x = _rotors[i].convertForward(x, _pos[i]);
+            }
+            for (int i = 1; i < _fixed; i++) {
+                x = _rotors[i].convertBackward(x, _pos[i]);
+            }
+            _core[c] = x;
+        }
+        _total = null;
+        _entry = _exit = null;
+        if (_fixed == _rotors.length) {
+            _total = new int[n];
+            for (int c = 0; c < n; c++) {
+                _total[c] = _plug[_core[_plug[c]]];
+            }
+            return;
+        }
+        Rotor fast = _rotors[_rotors.length - 1];
+        int[] forward = fast.forwardTable(), backward = fast.backwardTable();
+        if (forward != null) {
+            _entry = new int[n * n];
+            _exit = new int[n * n];
+            for (int k = 0; k < n * n; k++) {
+                _entry[k] = forward[k - k % n + _plug[k % n]];
+                _exit[k] = _plug[backward[k]];
+            }
+        }
     }
 
-    /** rotor_advance. */
-    private void rotorsAdvance() {
-        boolean isFastMoved = false;
-        Rotor alwaysMove = _rotors[_rotors.length - 1];
-        for (int i = _rotors.length - 1; i >= 1; i--) {
-            if (_rotors[i].atNotch() && _rotors[i - 1].rotates()) {
-                if (_rotors[i] == alwaysMove) {
+    /** rotor_advance.  Returns true iff a notch event occurred. */
+    private boolean rotorsAdvance() {
+        return advance(_pos);
+    }
+
+    /** Advance the rotor settings in POS (indexed like my rotor slots) as
+     *  for one keypress, and return true iff that moved a rotor other than
+     *  the rightmost (a notch event). */
+    boolean advance(int[] pos) {
+        int last = _rotors.length - 1;
+        boolean isFastMoved = false, notched = false;
+        for (int i = last; i >= 1; i--) {
+            if (_rotors[i].notchDistance(pos[i]) == 0
+                && _rotors[i - 1].rotates()) {
+                notched = true;
+                if (i == last) {
                     isFastMoved = true;
                 }
-                _rotors[i].advance();
-                _rotors[i - 1].advance();
+                pos[i] = step(i, pos[i]);
+                pos[i - 1] = step(i - 1, pos[i - 1]);
             }
         }
         if (!isFastMoved) {
-            alwaysMove.advance();
+            pos[last] = step(last, pos[last]);
+        }
+        return notched;
+    }
+
+    /** Return the setting that my rotor #I, at setting POSN, has after
+     *  being advanced. */
+    private int step(int i, int posn) {
+        if (!_rotors[i].rotates()) {
+            return posn;
+        }
+        return posn + 1 == _alphabet.size() ? 0 : posn + 1;
+    }
+
+    /** Set my rotors to the settings they would have after N more
+     *  keypresses, as if N characters of my alphabet had been converted,
+     *  without stepping through them one at a time. */
+    void seek(long n) {
+        if (n < 0) {
+            throw error("cannot seek backwards");
+        }
+        seek(_pos, n);
+    }
+
+    /** Advance the rotor settings in POS as for N keypresses.  Runs of
+     *  keypresses that move only the rightmost rotor are skipped
+     *  arithmetically, and once the settings seen at notch events
+     *  repeat, whole periods of the machine are skipped as well, so the
+     *  cost is bounded by the machine's period rather than by N. */
+    void seek(int[] pos, long n) {
+        int last = _rotors.length - 1;
+        int size = _alphabet.size();
+        int[] mark = null;
+        long markedAt = 0, done = 0;
+        int events = 0, limit = 1;
+        boolean periodic = false;
+        while (n > 0) {
+            int quiet = quietRun(pos);
+            if (quiet == Integer.MAX_VALUE || quiet >= n) {
+                if (_rotors[last].rotates()) {
+                    pos[last] = (int) ((pos[last] + n % size) % size);
+                }
+                return;
+            }
+            if (_rotors[last].rotates()) {
+                pos[last] = (int) ((pos[last] + (long) quiet) % size);
+            }
+            advance(pos);
+            n -= quiet + 1L;
+            done += quiet + 1L;
+            if (periodic) {
+                continue;
+            }
+            if (mark != null && Arrays.equals(mark, pos)) {
+                n %= done - markedAt;
+                periodic = true;
+            } else if (++events == limit) {
+                mark = pos.clone();
+                markedAt = done;
+                events = 0;
+                limit *= 2;
+            }
+        }
+    }
+
+    /** Return the number of keypresses, starting with rotor settings POS,
+     *  that will advance only my rightmost rotor, or Integer.MAX_VALUE if
+     *  no other rotor will ever move. */
+    private int quietRun(int[] pos) {
+        int last = _rotors.length - 1;
+        for (int i = 1; i < last; i++) {
+            if (_rotors[i].notchDistance(pos[i]) == 0
+                && _rotors[i - 1].rotates()) {
+                return 0;
+            }
+        }
+        int d = _rotors[last].notchDistance(pos[last]);
+        if (!_rotors[last - 1].rotates() || d < 0) {
+            return Integer.MAX_VALUE;
+        }
+        return d;
+    }
+
+    /** Set RUN to the combined permutation of all my rotors but the
+     *  rightmost, at settings POS, entered from the right and left again
+     *  to the right, using SCRATCH as working space.  Requires that
+     *  those rotors have precomputed tables. */
+    private void composeRun(int[] pos, int[] run, int[] scratch) {
+        int n = _alphabet.size();
+        int last = _rotors.length - 1;
+        System.arraycopy(_core, 0, run, 0, n);
+        for (int i = _fixed; i < last; i++) {
+            int[] forward = _rotors[i].forwardTable();
+            int[] backward = _rotors[i].backwardTable();
+            int offset = pos[i] * n;
+            for (int c = 0; c < n; c++) {
+                int x = run[forward[offset + c]];
+                scratch[c] = i == 0 ? x : backward[offset + x];
+            }
+            System.arraycopy(scratch, 0, run, 0, n);
+        }
+    }
+
+    /** Return true iff convert(char[], int, int, char[], int) can use
+     *  runs of precomputed tables with my current rotors. */
+    private boolean runnable() {
+        if (_core == null) {
+            compile();
+        }
+        int last = _rotors.length - 1;
+        if (_total != null || _entry == null || !_rotors[last].rotates()) {
+            return false;
+        }
+        for (int i = _fixed; i < last; i++) {
+            if (_rotors[i].forwardTable() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Convert IN[FROM .. TO-1] into OUT starting at OUTPOS as for
+     *  convert(char[], int, int, char[], int), starting from rotor
+     *  settings POS and leaving the final settings there.  Between notch
+     *  events only the rightmost rotor moves, so the rest of the machine
+     *  is composed into RUN once per run of keypresses, using SCRATCH as
+     *  working space.  Requires runnable(). */
+    private int convertRuns(char[] in, int from, int to, char[] out,
+                            int outPos, int[] pos, int[] run,
+                            int[] scratch) {
+        int n = _alphabet.size();
+        int last = _rotors.length - 1;
+        int quiet = quietRun(pos);
+        composeRun(pos, run, scratch);
+        int s = pos[last];
+        int j = outPos;
+        long advances = 0, notchEvents = 0;
+        for (int i = from; i < to; i++) {
+            char ch = in[i];
+            if (ch == ' ') {
+                continue;
+            }
+            ch = Character.toUpperCase(ch);
+            if (_alphabet.contains(ch)) {
+                advances += 1;
+                if (quiet > 0) {
+                    quiet -= 1;
+                    s = s + 1 == n ? 0 : s + 1;
+                } else {
+                    pos[last] = s;
+                    notchEvents += advance(pos) ? 1 : 0;
+                    s = pos[last];
+                    quiet = quietRun(pos);
+                    composeRun(pos, run, scratch);
+                }
+                int offset = s * n;
+                int c = _alphabet.toInt(ch);
+                ch = _alphabet.toChar(_exit[offset + run[_entry[offset + c]]]);
+            }
+            out[j++] = ch;
+        }
+        pos[last] = s;
+        if (Metrics.ENABLED) {
+            Metrics.converted(j - outPos, advances, notchEvents);
         }
+        return j - outPos;
     }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        rotorsAdvance();
-        c = _plugboard.permute(c);
-        for (int i = _rotors.length - 1; i >= 0; i--) {
-            c = _rotors[i].convertForward(c);
+        boolean notched = rotorsAdvance();
+        if (Metrics.ENABLED) {
+            _advances += 1;
+            _notchEvents += notched ? 1 : 0;
+            if (_advances >= METRICS_BATCH) {
+                record(0);
+            }
         }
-        for (int i = 1; i < _rotors.length; i++) {
-            c = _rotors[i].convertBackward(c);
+        if (_core == null) {
+            compile();
+        }
+        if (_total != null) {
+            return _total[c];
+        }
+        int last = _rotors.length - 1;
+        Rotor fast = _rotors[last];
+        int offset = _pos[last] * _alphabet.size();
+        if (_entry != null) {
+            c = _entry[offset + c];
+        } else {
+            c = fast.convertForward(_plug[c], _pos[last]);
+        }
+        for (int i = last - 1; i >= _fixed; i--) {
+            c = _rotors[i].convertForward(c, _pos[i]);
         }
-        c = _plugboard.permute(c);
-        return c;
+        c = _core[c];
+        for (int i = Math.max(_fixed, 1); i < last; i++) {
+            c = _rotors[i].convertBackward(c, _pos[i]);
+        }
+        if (_exit != null) {
+            return _exit[offset + c];
+        }
+        return _plug[fast.convertBackward(c, _pos[last])];
     }
     /** Return access my rotors.
      * @param x */
@@ -109,22 +474,353 @@ class Machine {
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String result = "";
-        msg = msg.toUpperCase().replaceAll(" ", "");
-        for (int i = 0; i < msg.length(); i++) {
-            if (_alphabet.contains(msg.charAt(i))) {
-                int num = _alphabet.toInt(msg.charAt(i));
-                char converted = _alphabet.toChar(convert(num));
-                result += converted;
-            } else {
-                result = result + msg.charAt(i);
+        char[] chars = msg.toCharArray();
+        char[] out = _alphabet.supplementary() ? new char[2 * chars.length]
+            : chars;
+        int n = convert(chars, 0, chars.length, out, 0);
+        return new String(out, 0, n);
+    }
+
+    /** Convert the characters IN[FROM .. TO-1] as for convert(String),
+     *  storing the result in OUT starting at OUTPOS, and return the
+     *  number of characters stored (at most TO - FROM).  Blanks are
+     *  dropped, letters are upper-cased, and characters outside my
+     *  alphabet are copied unchanged.  IN and OUT may be the same array,
+     *  provided that OUTPOS <= FROM.  If my alphabet has supplementary
+     *  characters, surrogate pairs in IN are converted as single
+     *  characters, up to 2 * (TO - FROM) characters may be stored, and
+     *  IN and OUT may overlap in any way.  Each call is recorded as a
+     *  ConvertEvent, as are those of the other bulk conversions. */
+    int convert(char[] in, int from, int to, char[] out, int outPos) {
+        Events.ConvertEvent event = new Events.ConvertEvent();
+        event.begin();
+        int n = convertChars(in, from, to, out, outPos);
+        commit(event, to - from);
+        return n;
+    }
+
+    /** Convert IN[FROM .. TO-1] into OUT starting at OUTPOS as for
+     *  convert(char[], int, int, char[], int), without recording an
+     *  event. */
+    private int convertChars(char[] in, int from, int to, char[] out,
+                             int outPos) {
+        if (_alphabet.supplementary()) {
+            return convertCodePoints(in, from, to, out, outPos);
+        }
+        if (runnable()) {
+            return convertRuns(in, from, to, out, outPos, _pos, _run,
+                               _scratch);
+        }
+        int j = outPos;
+        for (int i = from; i < to; i++) {
+            char ch = in[i];
+            if (ch == ' ') {
+                continue;
+            }
+            ch = Character.toUpperCase(ch);
+            if (_alphabet.contains(ch)) {
+                ch = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+            }
+            out[j++] = ch;
+        }
+        record(j - outPos);
+        return j - outPos;
+    }
+
+    /** Convert IN[FROM .. TO-1] into OUT starting at OUTPOS as for
+     *  convert(char[], int, int, char[], int), for an alphabet with
+     *  supplementary characters, a code point at a time. */
+    private int convertCodePoints(char[] in, int from, int to, char[] out,
+                                  int outPos) {
+        char[] text = Arrays.copyOfRange(in, from, to);
+        int j = outPos;
+        for (int i = 0; i < text.length; ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (cp == ' ') {
+                continue;
+            }
+            cp = Character.toUpperCase(cp);
+            int c = _alphabet.toIndex(cp);
+            if (c >= 0) {
+                cp = _alphabet.toCodePoint(convert(c));
+            }
+            j += Character.toChars(cp, out, j);
+        }
+        record(j - outPos);
+        return j - outPos;
+    }
+
+    /** Convert IN[FROM .. TO-1] into OUT starting at OUTPOS, producing
+     *  the same result and final rotor settings as
+     *  convert(char[], int, int, char[], int), but splitting inputs of
+     *  PARALLEL_THRESHOLD or more characters into chunks that are
+     *  converted concurrently on POOL.  Each chunk starts from the rotor
+     *  settings at its first character, found with seek.  IN and OUT must
+     *  not overlap.  Returns the number of characters stored. */
+    int convert(char[] in, int from, int to, char[] out, int outPos,
+                ForkJoinPool pool) {
+        Events.ConvertEvent event = new Events.ConvertEvent();
+        event.begin();
+        int n = convertChunks(in, from, to, out, outPos, pool);
+        commit(event, to - from);
+        return n;
+    }
+
+    /** Convert IN[FROM .. TO-1] into OUT starting at OUTPOS as for
+     *  convert(char[], int, int, char[], int, ForkJoinPool), without
+     *  recording an event. */
+    private int convertChunks(char[] in, int from, int to, char[] out,
+                              int outPos, ForkJoinPool pool) {
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        if (to - from < PARALLEL_THRESHOLD || chunks < 2 || !runnable()
+            || _alphabet.supplementary()) {
+            return convertChars(in, from, to, out, outPos);
+        }
+        int n = _alphabet.size();
+        int[] bounds = new int[chunks + 1];
+        for (int k = 0; k <= chunks; k++) {
+            bounds[k] = from + (int) ((long) (to - from) * k / chunks);
+        }
+        int[] keys = new int[chunks], sizes = new int[chunks];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int k = 0; k < chunks; k++) {
+            final int chunk = k;
+            tasks.add(() -> {
+                for (int i = bounds[chunk]; i < bounds[chunk + 1]; i++) {
+                    if (in[i] != ' ') {
+                        sizes[chunk] += 1;
+                        if (_alphabet.contains(Character.toUpperCase(in[i]))) {
+                            keys[chunk] += 1;
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(pool, tasks);
+        int[] start = _pos.clone();
+        int[][] finish = new int[chunks][];
+        tasks.clear();
+        long skip = 0;
+        int at = outPos;
+        for (int k = 0; k < chunks; k++) {
+            final int chunk = k, chunkAt = at;
+            final long chunkSkip = skip;
+            tasks.add(() -> {
+                int[] pos = start.clone();
+                seek(pos, chunkSkip);
+                convertRuns(in, bounds[chunk], bounds[chunk + 1], out, chunkAt,
+                            pos, new int[n], new int[n]);
+                finish[chunk] = pos;
+                return null;
+            });
+            skip += keys[k];
+            at += sizes[k];
+        }
+        invokeAll(pool, tasks);
+        System.arraycopy(finish[chunks - 1], 0, _pos, 0, _pos.length);
+        return at - outPos;
+    }
+
+    /** Set the fields of EVENT, a conversion of LENGTH characters or
+     *  bytes, and commit it, if it is wanted. */
+    private void commit(Events.ConvertEvent event, int length) {
+        if (event.shouldCommit()) {
+            event.length = length;
+            event.rotors = _numRotors;
+            event.commit();
+        }
+    }
+
+    /** Record in Metrics CHARS characters converted, along with the
+     *  keypresses counted by convert(int) and not yet recorded. */
+    private void record(long chars) {
+        if (Metrics.ENABLED) {
+            Metrics.converted(chars, _advances, _notchEvents);
+            _advances = _notchEvents = 0;
+        }
+    }
+
+    /** Run TASKS on POOL, wait for all of them to finish, and return
+     *  their results in the same order. */
+    static <T> List<T> invokeAll(ForkJoinPool pool,
+                                 List<Callable<T>> tasks) {
+        try {
+            ArrayList<T> results = new ArrayList<>();
+            for (Future<T> result : pool.invokeAll(tasks)) {
+                results.add(result.get());
             }
+            return results;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("parallel task failed: %s", excp.getCause());
+        }
+    }
+
+    /** Convert the remaining characters of IN as for convert(String),
+     *  putting the result into OUT, and return the number of characters
+     *  put.  Stops early, leaving the rest of IN unread, if OUT fills. */
+    int convert(CharBuffer in, CharBuffer out) {
+        Events.ConvertEvent event = new Events.ConvertEvent();
+        event.begin();
+        int start = in.position();
+        int n = convertBuffer(in, out);
+        commit(event, in.position() - start);
+        return n;
+    }
 
+    /** Convert IN into OUT as for convert(CharBuffer, CharBuffer),
+     *  without recording an event. */
+    private int convertBuffer(CharBuffer in, CharBuffer out) {
+        if (_alphabet.supplementary()) {
+            return convertCodePoints(in, out);
         }
-        return result;
+        if (in.hasArray() && out.hasArray()
+            && out.remaining() >= in.remaining()) {
+            int from = in.arrayOffset() + in.position();
+            int n = convertChars(in.array(), from, from + in.remaining(),
+                                 out.array(),
+                                 out.arrayOffset() + out.position());
+            in.position(in.limit());
+            out.position(out.position() + n);
+            return n;
+        }
+        int n = 0;
+        while (in.hasRemaining()) {
+            char ch = in.get(in.position());
+            if (ch != ' ') {
+                if (!out.hasRemaining()) {
+                    break;
+                }
+                ch = Character.toUpperCase(ch);
+                if (_alphabet.contains(ch)) {
+                    ch = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+                }
+                out.put(ch);
+                n += 1;
+            }
+            in.position(in.position() + 1);
+        }
+        record(n);
+        return n;
+    }
 
+    /** Convert the remaining characters of IN into OUT as for
+     *  convert(CharBuffer, CharBuffer), for an alphabet with supplementary
+     *  characters, a code point at a time.  Stops early if OUT might not
+     *  have room for the next character. */
+    private int convertCodePoints(CharBuffer in, CharBuffer out) {
+        int n = 0;
+        while (in.hasRemaining()) {
+            int cp = Character.codePointAt(in, 0);
+            int length = Character.charCount(cp);
+            if (cp != ' ') {
+                if (out.remaining() < 2) {
+                    break;
+                }
+                cp = Character.toUpperCase(cp);
+                int c = _alphabet.toIndex(cp);
+                if (c >= 0) {
+                    cp = _alphabet.toCodePoint(convert(c));
+                }
+                out.put(Character.toChars(cp));
+                n += Character.charCount(cp);
+            }
+            in.position(in.position() + length);
+        }
+        record(n);
+        return n;
     }
 
+    /** Convert the remaining bytes of IN, each standing for the character
+     *  of my alphabet with its value, putting the results into OUT, and
+     *  return the number converted.  Every byte is converted, with no
+     *  decoding or case conversion.  Stops early, leaving the rest of IN
+     *  unread, if OUT fills.  Requires that my alphabet coversBytes(). */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        Events.ConvertEvent event = new Events.ConvertEvent();
+        event.begin();
+        int count = convertBytes(in, out);
+        commit(event, count);
+        return count;
+    }
+
+    /** Convert IN into OUT as for convert(ByteBuffer, ByteBuffer),
+     *  without recording an event, and return the number of bytes
+     *  converted. */
+    private int convertBytes(ByteBuffer in, ByteBuffer out) {
+        if (!_alphabet.coversBytes()) {
+            throw error("alphabet does not cover the byte values");
+        }
+        int count = Math.min(in.remaining(), out.remaining());
+        int from = in.position(), j = out.position();
+        if (runnable()) {
+            int n = _alphabet.size();
+            int last = _rotors.length - 1;
+            int quiet = quietRun(_pos);
+            composeRun(_pos, _run, _scratch);
+            int s = _pos[last];
+            for (int i = from; i < from + count; i++) {
+                if (quiet > 0) {
+                    quiet -= 1;
+                    s = s + 1 == n ? 0 : s + 1;
+                } else {
+                    _pos[last] = s;
+                    boolean notched = advance(_pos);
+                    if (Metrics.ENABLED && notched) {
+                        _notchEvents += 1;
+                    }
+                    s = _pos[last];
+                    quiet = quietRun(_pos);
+                    composeRun(_pos, _run, _scratch);
+                }
+                int offset = s * n;
+                int c = _alphabet.toInt((char) (in.get(i) & BYTE_MASK));
+                c = _exit[offset + _run[_entry[offset + c]]];
+                out.put(j++, (byte) _alphabet.toChar(c));
+            }
+            _pos[last] = s;
+            if (Metrics.ENABLED) {
+                _advances += count;
+            }
+        } else {
+            for (int i = from; i < from + count; i++) {
+                int c = _alphabet.toInt((char) (in.get(i) & BYTE_MASK));
+                out.put(j++, (byte) _alphabet.toChar(convert(c)));
+            }
+        }
+        in.position(from + count);
+        out.position(j);
+        record(count);
+        return count;
+    }
+
+    /** Convert the bytes IN[FROM .. TO-1] as for convert(ByteBuffer,
+     *  ByteBuffer), storing the results in OUT starting at OUTPOS.  IN
+     *  and OUT may be the same array, provided that OUTPOS <= FROM. */
+    void convert(byte[] in, int from, int to, byte[] out, int outPos) {
+        convert(ByteBuffer.wrap(in, from, to - from),
+                ByteBuffer.wrap(out, outPos, to - from));
+    }
+
+
+    /** Shortest input that convert(char[], int, int, char[], int,
+     *  ForkJoinPool) splits into parallel chunks. */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    /** Number of chunks per thread of parallelism, so that uneven chunks
+     *  still keep every thread busy. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /** Mask for reading bytes as unsigned values. */
+    private static final int BYTE_MASK = 0xff;
+    /** Largest number of keypresses counted by convert(int) before they
+     *  are recorded in Metrics. */
+    private static final int METRICS_BATCH = 1 << 12;
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
@@ -132,11 +828,38 @@ class Machine {
     private int _numRotors;
     /** number of pawls. */
     private int _pawls;
-    /** collection of all rotors. */
-    private Object[]  _allRotors;
+    /** All available rotors, by name, in the order given. */
+    private HashMap<String, Rotor> _allRotors;
     /** plugboard. */
     private Permutation _plugboard;
     /** rotor list. */
     private Rotor[] _rotors;
+    /** Number of leading rotors in _rotors that cannot move. */
+    private int _fixed;
+    /** The plugboard as a table of indices. */
+    private int[] _plug;
+    /** The combined permutation of my first _fixed rotors, entered from
+     *  the right and left again to the right.  Null when my tables need
+     *  to be recomputed. */
+    private int[] _core;
+    /** The whole conversion, when none of my rotors can move. */
+    private int[] _total;
+    /** The plugboard followed by the rightmost rotor, indexed by that
+     *  rotor's setting times the alphabet size plus the input, or null
+     *  if that rotor has no precomputed tables. */
+    private int[] _entry;
+    /** The inverse of the rightmost rotor followed by the plugboard,
+     *  laid out as for _entry. */
+    private int[] _exit;
+    /** Settings of the rotors in each of my slots. */
+    private final int[] _pos;
+    /** The composed permutation of all but my rightmost rotor, used while
+     *  converting. */
+    private final int[] _run;
+    /** Scratch space for composing permutations. */
+    private final int[] _scratch;
+    /** Keypresses, and notch events among them, counted by convert(int)
+     *  and not yet recorded in Metrics. */
+    private long _advances, _notchEvents;
 
 }
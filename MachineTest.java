@@ -5,8 +5,13 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static enigma.TestUtils.*;
 
@@ -23,6 +28,105 @@ public class MachineTest {
     private Permutation perm;
     private String alpha = UPPER_STRING;
     private Machine _M;
+
+    /** Return the naval rotors. */
+    private List<Rotor> navalRotors() {
+        HashMap<String, String> notches = new HashMap<>();
+        notches.put("I", "Q");
+        notches.put("II", "E");
+        notches.put("III", "V");
+        notches.put("IV", "J");
+        notches.put("V", "Z");
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation p = new Permutation(NAVALA.get(name), UPPER);
+            if (notches.containsKey(name)) {
+                all.add(new MovingRotor(name, p, notches.get(name)));
+            } else if (name.equals("B") || name.equals("C")) {
+                all.add(new Reflector(name, p));
+            } else {
+                all.add(new FixedRotor(name, p));
+            }
+        }
+        return all;
+    }
+
+    /** Return a machine with the rotors ALL, whose slots hold the rotors
+     *  named ROTORS, set to SETTING and with plugboard PLUGBOARD. */
+    private Machine machine(List<Rotor> all, String[] rotors, String setting,
+                            String plugboard) {
+        Machine machine = new Machine(UPPER, rotors.length, 3, all);
+        machine.insertRotors(rotors);
+        machine.setRotors(setting);
+        machine.setPlugboard(new Permutation(plugboard, UPPER));
+        return machine;
+    }
+
+    /** Set _M to a machine with the naval rotors, whose slots hold the
+     *  rotors named ROTORS, set to SETTING and with plugboard PLUGBOARD. */
+    private void setMachine(String[] rotors, String setting,
+                            String plugboard) {
+        _M = machine(navalRotors(), rotors, setting, plugboard);
+    }
+
+    /** Return a machine over the byte alphabet with a reflector and three
+     *  moving rotors, set to SETTING. */
+    private Machine byteMachine(String setting) {
+        Alphabet bytes = Alphabet.bytes();
+        int n = bytes.size();
+        int[] reflector = new int[n];
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            reflector[k] = k ^ 0x5a;
+        }
+        all.add(new Reflector("R", new Permutation(reflector, bytes)));
+        for (int r = 1; r <= 3; r += 1) {
+            int[] table = new int[n];
+            for (int k = 0; k < n; k += 1) {
+                table[k] = (k * (2 * r + 3) + 17 * r) % n;
+            }
+            all.add(new MovingRotor("M" + r, new Permutation(table, bytes),
+                                    String.valueOf((char) (r * 40))));
+        }
+        Machine machine = new Machine(bytes, 4, 3, all);
+        machine.insertRotors(new String[] {"R", "M1", "M2", "M3"});
+        machine.setRotors(setting);
+        return machine;
+    }
+
+    /** Return a machine over ALPHABET with a reflector and three moving
+     *  rotors, set to SETTING. */
+    private Machine shiftMachine(Alphabet alphabet, String setting) {
+        int n = alphabet.size();
+        int[] reflector = new int[n];
+        ArrayList<Rotor> all = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            reflector[k] = k ^ 1;
+        }
+        all.add(new Reflector("R", new Permutation(reflector, alphabet)));
+        for (int r = 1; r <= 3; r += 1) {
+            int[] table = new int[n];
+            for (int k = 0; k < n; k += 1) {
+                table[k] = (k * (4 * r - 1) + 7 * r) % n;
+            }
+            all.add(new MovingRotor("M" + r,
+                                    new Permutation(table, alphabet),
+                                    new String(Character.toChars(
+                                        alphabet.toCodePoint(r * 5)))));
+        }
+        Machine machine = new Machine(alphabet, 4, 3, all);
+        machine.insertRotors(new String[] {"R", "M1", "M2", "M3"});
+        machine.setRotors(setting);
+        return machine;
+    }
+
+    /** Rotors used by the sample messages. */
+    private static final String[] SAMPLE_ROTORS =
+        {"B", "Beta", "III", "IV", "I"};
+    /** Plugboard used by the sample messages. */
+    private static final String SAMPLE_PLUGBOARD =
+        "(HQ) (EX) (IP) (TR) (BY)";
+
     /* ***** TESTS ***** */
     @Test
     public void convertTest() {
@@ -74,7 +178,7 @@ public class MachineTest {
         allRotors[8] = rotorC;
         List<Rotor> rotorlist = Arrays.asList(allRotors);
         _M = new Machine(alpha1, 5, 3, rotorlist);
-        _M.insertRotors(new String[]{"B", "BETA", "III", "IV", "I"});
+        _M.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
         _M.setRotors("AXLE");
         _M.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", alpha1));
         assertEquals(5, _M.numRotors());
@@ -82,4 +186,228 @@ public class MachineTest {
         assertEquals(16, _M.convert(5));
         assertEquals(21, _M.convert(17));
     }
+
+    @Test
+    public void convertStringTest() {
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     _M.convert("FROM his shoulder Hiawatha"));
+    }
+
+    @Test
+    public void bulkConvertTest() {
+        String msg = "Took the camera of rosewood, 1 2 3";
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        String expected = _M.convert(msg);
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        char[] out = new char[msg.length() + 2];
+        int n = _M.convert(msg.toCharArray(), 0, msg.length(), out, 2);
+        assertEquals(expected, new String(out, 2, n));
+    }
+
+    @Test
+    public void convertAcrossNotchesTest() {
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG".repeat(40);
+        setMachine(SAMPLE_ROTORS, "ADUO", SAMPLE_PLUGBOARD);
+        String expected = "";
+        for (int i = 0; i < msg.length(); i += 1) {
+            int c = _M.convert(UPPER.toInt(msg.charAt(i)));
+            expected += UPPER.toChar(c);
+        }
+        int[] settings = new int[SAMPLE_ROTORS.length];
+        for (int i = 0; i < settings.length; i += 1) {
+            settings[i] = _M.setting(i);
+        }
+        setMachine(SAMPLE_ROTORS, "ADUO", SAMPLE_PLUGBOARD);
+        assertEquals(expected, _M.convert(msg));
+        for (int i = 0; i < settings.length; i += 1) {
+            assertEquals(settings[i], _M.setting(i));
+        }
+    }
+
+    @Test
+    public void seekTest() {
+        String skipped = "A".repeat(5000);
+        String msg = "FROM his shoulder Hiawatha";
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        _M.convert(skipped);
+        String expected = _M.convert(msg);
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        _M.seek(skipped.length());
+        assertEquals(expected, _M.convert(msg));
+    }
+
+    @Test
+    public void longSeekTest() {
+        Machine machine = new Machine(UPPER, 4, 1, navalRotors());
+        machine.insertRotors(new String[] {"B", "Beta", "Gamma", "I"});
+        for (long n : new long[] {3_000_000_000L, Long.MAX_VALUE / 2,
+                                  Long.MAX_VALUE}) {
+            int[] pos = {0, 0, 0, 4};
+            machine.seek(pos, n);
+            assertArrayEquals(new int[] {0, 0, 0, (int) ((4 + n % 26) % 26)},
+                              pos);
+        }
+    }
+
+    @Test
+    public void notchEventTest() {
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        int[] pos = {0, 0, 23, 11, 4};
+        assertFalse(_M.advance(pos));
+        assertArrayEquals(new int[] {0, 0, 23, 11, 5}, pos);
+        pos[4] = 16;
+        assertTrue(_M.advance(pos));
+        assertArrayEquals(new int[] {0, 0, 23, 12, 17}, pos);
+        pos[3] = 9;
+        assertTrue(_M.advance(pos));
+        assertArrayEquals(new int[] {0, 0, 24, 10, 18}, pos);
+    }
+
+    @Test
+    public void parallelConvertTest() {
+        char[] msg = "Took the camera of rosewood "
+            .repeat(Machine.PARALLEL_THRESHOLD / 10).toCharArray();
+        char[] expected = new char[msg.length];
+        char[] actual = new char[msg.length];
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        int n = _M.convert(msg, 0, msg.length, expected, 0);
+        String settings = _M.convert("AAAAA");
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        assertEquals(n, _M.convert(msg, 0, msg.length, actual, 0,
+                                   new ForkJoinPool(4)));
+        assertArrayEquals(expected, actual);
+        assertEquals(settings, _M.convert("AAAAA"));
+    }
+
+    @Test
+    public void restoreTest() {
+        String msg = "Made of sliding folding rosewood";
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        Machine.Assembly assembly = _M.assembly();
+        String expected = _M.convert(msg);
+        _M.insertRotors(new String[] {"C", "Gamma", "I", "II", "V"});
+        _M.setRotors("QQQQ");
+        _M.setPlugboard(new Permutation("", UPPER));
+        _M.restore(assembly);
+        assertEquals(expected, _M.convert(msg));
+    }
+
+    @Test
+    public void sharedRotorsTest() {
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG".repeat(40);
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        String expected1 = _M.convert(msg);
+        setMachine(SAMPLE_ROTORS, "QDUV", SAMPLE_PLUGBOARD);
+        String expected2 = _M.convert(msg);
+        List<Rotor> all = navalRotors();
+        Machine m1 = machine(all, SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        Machine m2 = machine(all, SAMPLE_ROTORS, "QDUV", SAMPLE_PLUGBOARD);
+        String actual1 = "", actual2 = "";
+        for (int i = 0; i < msg.length(); i += 1) {
+            actual1 += m1.convert(msg.substring(i, i + 1));
+            actual2 += m2.convert(msg.substring(i, i + 1));
+        }
+        assertEquals(expected1, actual1);
+        assertEquals(expected2, actual2);
+    }
+
+    @Test
+    public void copyTest() {
+        String msg = "Made of sliding folding rosewood";
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        _M.convert(msg);
+        Machine copy = new Machine(_M);
+        String expected = _M.convert(msg);
+        assertEquals(expected, copy.convert(msg));
+        assertEquals(_M.convert(msg), copy.convert(msg));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void misnamedRotorTest() {
+        setMachine(SAMPLE_ROTORS, "AXLE", SAMPLE_PLUGBOARD);
+        _M.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+    }
+
+    @Test
+    public void convertBytesTest() {
+        String setting = "\u00ff\u0027\u0077";
+        byte[] data = new byte[1 << 14];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i * 31 ^ i >> 3);
+        }
+        Machine scalar = byteMachine(setting);
+        byte[] expected = new byte[data.length];
+        for (int i = 0; i < data.length; i += 1) {
+            expected[i] = (byte) scalar.convert(data[i] & 0xff);
+        }
+        byte[] converted = new byte[data.length];
+        byteMachine(setting).convert(data, 0, data.length, converted, 0);
+        assertArrayEquals(expected, converted);
+
+        ByteBuffer in = ByteBuffer.allocateDirect(data.length);
+        ByteBuffer out = ByteBuffer.allocateDirect(data.length / 2);
+        in.put(converted).flip();
+        Machine machine = byteMachine(setting);
+        byte[] decrypted = new byte[data.length];
+        while (in.hasRemaining()) {
+            int from = in.position();
+            assertEquals(out.remaining(), machine.convert(in, out));
+            out.flip().get(decrypted, from, out.remaining());
+            out.clear();
+        }
+        assertArrayEquals(data, decrypted);
+    }
+
+    @Test
+    public void coversBytesTest() {
+        assertTrue(Alphabet.bytes().coversBytes());
+        assertFalse(UPPER.coversBytes());
+        assertFalse(new CharacterRange(0, 254).coversBytes());
+        assertFalse(new CharacterRange('A', 'Z').coversBytes());
+        Alphabet shifted = new Alphabet() {
+            @Override
+            int size() {
+                return BYTES;
+            }
+
+            @Override
+            int toCodePoint(int index) {
+                return (index + 7) % BYTES;
+            }
+        };
+        assertTrue(shifted.coversBytes());
+    }
+
+    @Test
+    public void supplementaryTest() {
+        StringBuilder chars = new StringBuilder(UPPER_STRING);
+        for (int k = 0; k < 26; k += 1) {
+            chars.appendCodePoint(0x1F600 + k);
+        }
+        Alphabet alphabet = new Alphabet(chars.toString());
+        assertEquals(52, alphabet.size());
+        assertTrue(alphabet.supplementary());
+        assertEquals(30, alphabet.toIndex(0x1F604));
+        String setting = "A\uD83D\uDE10C";
+        String msg = "Grin \uD83D\uDE00 and wink \uD83D\uDE09 at ME";
+        String plain = msg.replace(" ", "").toUpperCase();
+        String cipher = shiftMachine(alphabet, setting).convert(msg);
+        assertEquals(plain.codePointCount(0, plain.length()),
+                     cipher.codePointCount(0, cipher.length()));
+        assertEquals(plain, shiftMachine(alphabet, setting).convert(cipher));
+
+        int[] points = new int[20000];
+        for (int k = 0; k < points.length; k += 1) {
+            points[k] = 0x4E00 + k;
+        }
+        Alphabet large = new Alphabet(points);
+        assertEquals(19999, large.toIndex(0x4E00 + 19999));
+        assertEquals(-1, large.toIndex('A'));
+        String text = "\u4E00\u5000\u6000\u7000\u8000\u9000";
+        String encrypted = shiftMachine(large, "\u4E01\u4E02\u4E03")
+            .convert(text);
+        assertEquals(text, shiftMachine(large, "\u4E01\u4E02\u4E03")
+                     .convert(encrypted));
+    }
 }
@@ -1,12 +1,46 @@
 package enigma;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 import static enigma.EnigmaException.*;
 
@@ -28,6 +62,50 @@ public final class Main {
      * file for processed messages.  Otherwise, output goes to the
      * standard output. Exits normally if there are no errors in the input;
      * otherwise with code 1.
+     *
+     * Options, each starting with "--", may precede ARGS[0]:
+     * --stream processes the input as a stream through NIO channels,
+     * using a fixed amount of memory however long its lines are.
+     * --mmap is like --stream, but memory-maps an input file rather than
+     * reading it.  --group=N prints messages in groups of N characters
+     * (default 5), and --width=N starts a new output line after every N
+     * characters of a message (default 0, meaning never), which must be
+     * a multiple of the group size.  --cache=DIR
+     * keeps compiled configurations in directory DIR, so that later runs
+     * with the same configuration file need not parse it again.
+     * --jobs=N converts the messages after different settings lines on
+     * N threads at once, writing their output in input order.
+     * --crib=TEXT treats the message lines of the input as one ciphertext
+     * and, instead of converting it, prints each key under which TEXT
+     * encrypts to part of it, as the position of TEXT in the ciphertext
+     * followed by a settings line without a plugboard.  --attack=SAMPLE
+     * likewise prints the settings lines, plugboards included, of the
+     * ATTACK_KEEP keys that best decrypt the ciphertext, best first,
+     * judged by the trigram frequencies of the text in file SAMPLE.
+     *
+     * --bytes=SETTINGS converts ARGS[1] (or the standard input) into
+     * ARGS[2] (or the standard output) byte for byte, each byte standing
+     * for the symbol with its value, using a machine set up by the
+     * settings line SETTINGS.  The alphabet must then consist of all 256
+     * byte values, and every symbol in the configuration file and in
+     * SETTINGS, including the alphabet line, notches, rotor settings and
+     * cycles, is written as two hexadecimal digits.  With --mmap, the
+     * input file is memory-mapped.
+     *
+     * --serve=PORT turns the program into a local HTTP service on PORT
+     * (or on any free port, if PORT is 0), which prints the port it
+     * listens on and then runs until killed.  Only ARGS[0] is given.
+     * Each POST request carries UTF-8 input in the same form as an input
+     * file, which is processed on its own thread with its own machine
+     * state, and the response is the corresponding output, or an error
+     * message with status 400.
+     *
+     * If the system property enigma.metrics is "true", counts of the work
+     * done are exported as the platform MBean enigma:type=Metrics.
+     * Configuration loads, setups and message conversions are recorded
+     * as Java Flight Recorder events in the category Enigma.
+     * The system property enigma.tableLimit sets the largest alphabet
+     * for which rotors precompute their conversions (256 by default).
      */
     public static void main(String... args) {
         try {
@@ -44,12 +122,58 @@ public final class Main {
      * @param args the args.
      */
     Main(String[] args) {
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            setOption(args[first]);
+            first += 1;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
+        if (_groupSize <= 0 || _lineWidth < 0) {
+            throw error("--group must be positive and --width not negative");
+        }
+        if (_lineWidth % _groupSize != 0) {
+            throw error("--width must be a multiple of --group");
+        }
+
+        _configName = args[0];
         _config = getInput(args[0]);
 
+        if (_stream && (_jobs > 0 || _crib != null || _sample != null)) {
+            throw error("--jobs, --crib and --attack cannot be used with "
+                        + "--stream or --mmap");
+        }
+
+        if (_byteSettings != null
+            && (_jobs > 0 || _crib != null || _sample != null || _port >= 0)) {
+            throw error("--bytes cannot be used with --jobs, --crib, "
+                        + "--attack or --serve");
+        }
+
+        if (_port >= 0) {
+            if (args.length > 1) {
+                throw error("--serve takes only a configuration file");
+            }
+            return;
+        }
+
+        if (_stream || _byteSettings != null) {
+            if (args.length > 1) {
+                _inputChannel = openChannel(args[1]);
+            } else {
+                _inputChannel = Channels.newChannel(System.in);
+            }
+            if (args.length > 2) {
+                _outputChannel = createChannel(args[2]);
+            } else {
+                _outputChannel = Channels.newChannel(System.out);
+            }
+            return;
+        }
+
         if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
@@ -87,30 +211,704 @@ public final class Main {
         }
     }
 
+    /**
+     * Turn on the command-line option OPTION.
+     */
+    private void setOption(String option) {
+        switch (option) {
+        case "--stream":
+            _stream = true;
+            break;
+        case "--mmap":
+            _stream = _mapped = true;
+            break;
+        default:
+            if (option.startsWith("--cache=")) {
+                _cache = new ConfigCache(option.substring("--cache=".length()));
+            } else if (option.startsWith("--group=")) {
+                _groupSize = intOption(option);
+            } else if (option.startsWith("--width=")) {
+                _lineWidth = intOption(option);
+            } else if (option.startsWith("--jobs=")) {
+                _jobs = intOption(option);
+                if (_jobs <= 0) {
+                    throw error("bad option %s", option);
+                }
+            } else if (option.startsWith("--crib=")) {
+                _crib = option.substring("--crib=".length());
+            } else if (option.startsWith("--attack=")) {
+                _sample = option.substring("--attack=".length());
+            } else if (option.startsWith("--bytes=")) {
+                _byteSettings = option.substring("--bytes=".length());
+            } else if (option.startsWith("--serve=")) {
+                _port = intOption(option);
+            } else {
+                throw error("unknown option %s", option);
+            }
+        }
+    }
+
+    /**
+     * Return the value of the numeric option OPTION, of the form
+     * --name=N.
+     */
+    private static int intOption(String option) {
+        try {
+            return Integer.parseInt(option.substring(option.indexOf('=') + 1));
+        } catch (NumberFormatException excp) {
+            throw error("bad option %s", option);
+        }
+    }
+
+    /**
+     * return.
+     * @param name the name.
+     */
+    private ReadableByteChannel openChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /**
+     * return.
+     * @param name the name.
+     */
+    private WritableByteChannel createChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /**
      * process.
      */
-    private void process() {
+    void process() {
+        if (_port >= 0) {
+            serve(readConfig());
+            return;
+        }
+        if (_byteSettings != null) {
+            processBytes();
+            return;
+        }
+        if (_stream) {
+            processStream();
+            return;
+        }
+        if (_crib != null) {
+            searchCrib(readConfig());
+            return;
+        }
+        if (_sample != null) {
+            attack(readConfig());
+            return;
+        }
+        if (_jobs > 0) {
+            processBatch(readConfig());
+            return;
+        }
         Machine M = readConfig();
+        _writer = new GroupWriter(Channels.newChannel(_output),
+                                  Charset.defaultCharset(), _groupSize,
+                                  _lineWidth);
+        try {
+            processLines(M, lines(_input), _writer);
+        } finally {
+            _writer.flush();
+            _output.flush();
+        }
+    }
+
+    /**
+     * Return an iterator over the remaining lines of INPUT.
+     */
+    private static Iterator<String> lines(Scanner input) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return input.hasNextLine();
+            }
+
+            @Override
+            public String next() {
+                return input.nextLine();
+            }
+        };
+    }
+
+    /**
+     * Process the settings and message lines LINES with machine M,
+     * writing converted messages to WRITER.
+     */
+    private void processLines(Machine M, Iterator<String> lines,
+                              GroupWriter writer) {
+        char[] line = new char[0];
         boolean b1 = false;
-        while (_input.hasNextLine()) {
-            String next = _input.nextLine();
+        while (lines.hasNext()) {
+            String next = lines.next();
             boolean b2 = next.startsWith("*");
             if (b2) {
                 b1 = setUp(M, next);
             } else if (b1) {
-                printMessageLine(M.convert(next));
+                int size = M.alphabet().supplementary() ? 2 * next.length()
+                    : next.length();
+                if (line.length < size) {
+                    line = new char[Math.max(size, 2 * line.length)];
+                }
+                next.getChars(0, next.length(), line, 0);
+                printMessageLine(writer, line,
+                                 M.convert(line, 0, next.length(), line, 0));
             }
         }
     }
 
     /**
-     * return.
+     * Process the input as for process(), but in batches of whole
+     * messages, each a settings line and the message lines after it,
+     * converted as separate tasks on _jobs threads, each with its own
+     * copy of machine BASE.  A batch holds messages totalling about
+     * BATCH_SIZE characters, at most BATCH_WINDOW batches per thread are
+     * pending at once, and their output is written in input order as
+     * they finish.  If a line fails, the output of the lines before it
+     * is written before the error is reported, as for process().
+     */
+    private void processBatch(Machine base) {
+        ExecutorService pool = Executors.newFixedThreadPool(_jobs);
+        ArrayDeque<Future<BatchOutput>> pending =
+            new ArrayDeque<>();
+        try {
+            ArrayList<String> batch = null;
+            int size = 0;
+            while (_input.hasNextLine()) {
+                String next = _input.nextLine();
+                if (next.startsWith("*")) {
+                    if (batch != null && size >= BATCH_SIZE) {
+                        if (pending.size() == BATCH_WINDOW * _jobs) {
+                            writeBatch(pending.remove());
+                        }
+                        List<String> lines = batch;
+                        pending.add(pool.submit(() -> convertBatch(base,
+                                                                   lines)));
+                        batch = null;
+                    }
+                    if (batch == null) {
+                        batch = new ArrayList<>();
+                        size = 0;
+                    }
+                }
+                if (batch != null) {
+                    batch.add(next);
+                    size += next.length();
+                }
+            }
+            if (batch != null) {
+                List<String> lines = batch;
+                pending.add(pool.submit(() -> convertBatch(base, lines)));
+            }
+            while (!pending.isEmpty()) {
+                writeBatch(pending.remove());
+            }
+        } finally {
+            pool.shutdownNow();
+            _output.flush();
+        }
+    }
+
+    /**
+     * Return the output for LINES, a batch of settings lines and the
+     * message lines after them, converted with a copy of machine BASE.
+     * If a line fails, the output holds the lines before it.
+     */
+    private BatchOutput convertBatch(Machine base, List<String> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter writer = new GroupWriter(Channels.newChannel(bytes),
+                                             Charset.defaultCharset(),
+                                             _groupSize, _lineWidth);
+        try {
+            processLines(new Machine(base), lines.iterator(), writer);
+        } catch (EnigmaException excp) {
+            writer.flush();
+            return new BatchOutput(bytes, excp);
+        }
+        writer.flush();
+        return new BatchOutput(bytes, null);
+    }
+
+    /**
+     * Wait for the output of BATCH and write it, and then throw the
+     * error that ended BATCH, if any.
+     */
+    private void writeBatch(Future<BatchOutput> batch) {
+        BatchOutput output;
+        try {
+            output = batch.get();
+            output._bytes.writeTo(_output);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("conversion interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("conversion failed: %s", excp.getCause());
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        if (output._error != null) {
+            throw output._error;
+        }
+    }
+
+    /**
+     * Print the keys for machine M under which _crib encrypts to part of
+     * the message lines of the input.
+     */
+    private void searchCrib(Machine M) {
+        CribSearch search = new CribSearch(M);
+        for (CribSearch.Key key
+                 : search.search(readCiphertext(), _crib, null,
+                                 ForkJoinPool.commonPool())) {
+            _output.printf("%d %s%n", key.offset(), key);
+        }
+        _output.flush();
+    }
+
+    /**
+     * Print the keys for machine M that best decrypt the message lines of
+     * the input, judged by the trigrams of the file named _sample.
+     */
+    private void attack(Machine M) {
+        String sample;
+        try {
+            sample = new String(Files.readAllBytes(Paths.get(_sample)),
+                                Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", _sample);
+        }
+        CiphertextAttack attack =
+            new CiphertextAttack(M, new NgramScore(M.alphabet(), 3, sample));
+        for (CiphertextAttack.Candidate candidate
+                 : attack.attack(readCiphertext(), ATTACK_KEEP,
+                                 ForkJoinPool.commonPool())) {
+            _output.println(candidate);
+        }
+        _output.flush();
+    }
+
+    /**
+     * Return the message lines of the input, joined together.
+     */
+    private String readCiphertext() {
+        StringBuilder ciphertext = new StringBuilder();
+        while (_input.hasNextLine()) {
+            String next = _input.nextLine();
+            if (!next.startsWith("*")) {
+                ciphertext.append(next);
+            }
+        }
+        return ciphertext.toString();
+    }
+
+    /**
+     * Serve requests on _port, converting each with a copy of machine
+     * BASE, until the program is killed.
+     */
+    private void serve(Machine base) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), _port),
+                0);
+        } catch (IOException excp) {
+            throw error("could not listen on port %d: %s", _port,
+                        excp.getMessage());
+        }
+        server.createContext("/", exchange -> handle(base, exchange));
+        server.setExecutor(requestExecutor());
+        server.start();
+        _server = server;
+        System.out.printf("Listening on port %d%n",
+                          server.getAddress().getPort());
+        System.out.flush();
+    }
+
+    /**
+     * Return the port on which I serve requests, once process() has
+     * started serving them.
+     */
+    int port() {
+        return _server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving requests.
+     */
+    void stop() {
+        _server.stop(0);
+    }
+
+    /**
+     * Return an executor that runs each task on a new virtual thread, if
+     * this Java runtime has them, and otherwise on a pooled thread.
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Respond to the request EXCHANGE, converting its input with a copy of
+     * machine BASE.
+     */
+    private void handle(Machine base, HttpExchange exchange)
+        throws IOException {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int status = HTTP_OK;
+            if (!exchange.getRequestMethod().equals("POST")) {
+                status = HTTP_BAD_METHOD;
+                body.write("Error: requests must use POST\n"
+                           .getBytes(StandardCharsets.UTF_8));
+            } else {
+                GroupWriter writer =
+                    new GroupWriter(Channels.newChannel(body),
+                                    StandardCharsets.UTF_8, _groupSize,
+                                    _lineWidth);
+                try {
+                    processLines(new Machine(base),
+                                 lines(new Scanner(exchange.getRequestBody(),
+                                                   StandardCharsets.UTF_8)),
+                                 writer);
+                    writer.flush();
+                } catch (EnigmaException excp) {
+                    status = HTTP_BAD_REQUEST;
+                    body.reset();
+                    body.write(String.format("Error: %s%n", excp.getMessage())
+                               .getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type",
+                                              "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.size());
+            body.writeTo(exchange.getResponseBody());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Process the input as for process(), reading it through
+     * _inputChannel and writing to _outputChannel a buffer at a time,
+     * so that lines of any length are handled in constant memory.
+     */
+    private void processStream() {
+        Machine M = readConfig();
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _writer = new GroupWriter(_outputChannel, Charset.defaultCharset(),
+                                  _groupSize, _lineWidth);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        _converted = new char[2 * BUFFER_SIZE];
+        try {
+            if (_mapped && _inputChannel instanceof FileChannel) {
+                decodeMapped(M, decoder, chars);
+            } else {
+                boolean eof = false;
+                while (!eof) {
+                    eof = _inputChannel.read(bytes) < 0;
+                    bytes.flip();
+                    decode(M, decoder, bytes, chars, eof);
+                    bytes.compact();
+                }
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                chars.flip();
+                feed(M, chars.array(), chars.position(), chars.limit());
+                chars.clear();
+            }
+            chars.flip();
+            feed(M, chars.array(), chars.position(), chars.limit());
+            if (!_lineStart) {
+                endLine(M);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } finally {
+            finishStream();
+        }
+    }
+
+    /**
+     * Write out everything in _writer and close or flush _outputChannel,
+     * whether or not the streamed input was processed without error.
+     */
+    private void finishStream() {
+        _writer.flush();
+        try {
+            if (_outputChannel instanceof FileChannel) {
+                _outputChannel.close();
+            } else {
+                System.out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Convert the input byte for byte, as for --bytes, reading it
+     * through _inputChannel and writing to _outputChannel through direct
+     * buffers.
+     */
+    private void processBytes() {
+        Machine M = readConfig();
+        setUp(M, _byteSettings);
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            if (_mapped && _inputChannel instanceof FileChannel) {
+                FileChannel input = (FileChannel) _inputChannel;
+                long size = input.size();
+                for (long offset = 0; offset < size; offset += MAP_SIZE) {
+                    ByteBuffer window =
+                        input.map(FileChannel.MapMode.READ_ONLY, offset,
+                                  Math.min(MAP_SIZE, size - offset));
+                    while (window.hasRemaining()) {
+                        M.convert(window, out);
+                        writeBytes(out);
+                    }
+                }
+            } else {
+                while (_inputChannel.read(in) >= 0) {
+                    in.flip();
+                    M.convert(in, out);
+                    in.clear();
+                    writeBytes(out);
+                }
+            }
+            if (_outputChannel instanceof FileChannel) {
+                _outputChannel.close();
+            } else {
+                System.out.flush();
+            }
+            if (Metrics.ENABLED) {
+                Metrics.message();
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the contents of BYTES to _outputChannel, and clear it.
+     */
+    private void writeBytes(ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            _outputChannel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Decode and process the input file a mapped window at a time, using
+     * machine M, DECODER and the buffer CHARS.
+     */
+    private void decodeMapped(Machine M, CharsetDecoder decoder,
+                              CharBuffer chars) throws IOException {
+        FileChannel input = (FileChannel) _inputChannel;
+        long size = input.size();
+        long offset = 0;
+        boolean eof;
+        do {
+            long length = Math.min(MAP_SIZE, size - offset);
+            ByteBuffer window =
+                input.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            eof = offset + length == size;
+            decode(M, decoder, window, chars, eof);
+            offset += window.position();
+        } while (!eof);
+    }
+
+    /**
+     * Decode BYTES into CHARS with DECODER, processing each buffer of
+     * characters with machine M.  Undecoded bytes, such as the start of
+     * a character split between buffers, are left in BYTES.  EOF is true
+     * iff BYTES ends the input.
+     */
+    private void decode(Machine M, CharsetDecoder decoder, ByteBuffer bytes,
+                        CharBuffer chars, boolean eof) {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, eof);
+            chars.flip();
+            feed(M, chars.array(), chars.position(), chars.limit());
+            chars.clear();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Process the characters BUF[FROM .. TO-1], the next part of the
+     * input, using machine M.  Lines may be split across calls.
+     */
+    private void feed(Machine M, char[] buf, int from, int to) {
+        int i = from;
+        while (i < to) {
+            if (_afterReturn) {
+                _afterReturn = false;
+                if (buf[i] == '\n') {
+                    i += 1;
+                    continue;
+                }
+            }
+            if (_lineStart) {
+                _lineStart = false;
+                _settings = buf[i] == '*' ? new StringBuilder() : null;
+            }
+            int end = i;
+            while (end < to && !isLineBreak(buf[end])) {
+                end += 1;
+            }
+            if (_settings != null) {
+                _settings.append(buf, i, end - i);
+            } else if (_converting) {
+                convertPart(M, buf, i, end, end == to);
+            }
+            if (end == to) {
+                return;
+            }
+            _afterReturn = buf[end] == '\r';
+            endLine(M);
+            i = end + 1;
+        }
+    }
+
+    /**
+     * Convert and write the message characters BUF[FROM .. TO-1] with
+     * machine M.  If MORE, the line continues in the next part of the
+     * input, so a high surrogate ending this part is held back until the
+     * rest of its pair arrives.
+     */
+    private void convertPart(Machine M, char[] buf, int from, int to,
+                             boolean more) {
+        int start = from, end = to;
+        if (_held != 0) {
+            if (start == end && more) {
+                return;
+            }
+            char[] pair = {_held, 0};
+            int n = 1;
+            if (start < end && Character.isLowSurrogate(buf[start])) {
+                pair[1] = buf[start];
+                n = 2;
+                start += 1;
+            }
+            _held = 0;
+            _writer.write(_converted, 0, M.convert(pair, 0, n, _converted, 0));
+        }
+        if (more && end > start && Character.isHighSurrogate(buf[end - 1])) {
+            _held = buf[end - 1];
+            end -= 1;
+        }
+        _writer.write(_converted, 0, M.convert(buf, start, end, _converted, 0));
+    }
+
+    /**
+     * Return true iff CH ends a line, as for Scanner.nextLine().
+     */
+    private static boolean isLineBreak(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u2028' || ch == '\u2029'
+            || ch == '\u0085';
+    }
+
+    /**
+     * Finish the current line of streamed input, using machine M.
+     */
+    private void endLine(Machine M) {
+        if (_settings != null) {
+            _converting = setUp(M, _settings.toString());
+            _settings = null;
+        } else if (_converting) {
+            if (_held != 0) {
+                convertPart(M, _converted, 0, 0, false);
+            }
+            _writer.endLine();
+            if (Metrics.ENABLED) {
+                Metrics.message();
+            }
+        }
+        _lineStart = true;
+    }
+
+    /**
+     * Return the machine described by the configuration file, recording
+     * how long it took to load in Metrics and as a ConfigLoadEvent.
      */
     private Machine readConfig() {
+        Events.ConfigLoadEvent event = new Events.ConfigLoadEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Machine machine = loadConfig();
+        if (Metrics.ENABLED) {
+            Metrics.configLoaded(System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.config = _configName;
+            event.rotors = machine.numRotors();
+            event.commit();
+        }
+        return machine;
+    }
+
+    /**
+     * return.
+     */
+    private Machine loadConfig() {
+        byte[] text = null;
+        if (_cache != null) {
+            try {
+                text = Files.readAllBytes(Paths.get(_configName));
+            } catch (IOException excp) {
+                throw error("could not read %s", _configName);
+            }
+            if (_byteSettings != null) {
+                byte[] marked = Arrays.copyOf(BYTES_MARK,
+                                              BYTES_MARK.length + text.length);
+                System.arraycopy(text, 0, marked, BYTES_MARK.length,
+                                 text.length);
+                text = marked;
+            }
+            Machine cached = _cache.get(text);
+            if (cached != null) {
+                _alphabet = cached.alphabet();
+                return cached;
+            }
+        }
         try {
-            String alpha = _config.nextLine().trim().toUpperCase();
-            _alphabet = new Alphabet(alpha);
+            String alpha = _config.nextLine().trim();
+            if (_byteSettings != null) {
+                _alphabet = new Alphabet(symbols(alpha));
+                if (!_alphabet.coversBytes()) {
+                    throw error("--bytes needs an alphabet of all 256 "
+                                + "byte values");
+                }
+            } else {
+                _alphabet = new Alphabet(alpha.toUpperCase());
+            }
             int numrotor = _config.nextInt();
             int nummoving = _config.nextInt();
             ArrayList<Rotor> rotorarr = new ArrayList<>();
@@ -120,6 +918,9 @@ public final class Main {
             }
             Machine m1 = new Machine(_alphabet, numrotor, nummoving,
                     rotorarr);
+            if (_cache != null) {
+                _cache.put(text, m1, rotorarr);
+            }
             return m1;
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
@@ -137,9 +938,10 @@ public final class Main {
             while (_config.hasNext("\\s*[(].*[)]")) {
                 cycle1 = cycle1.concat(_config.next() + " ");
             }
-            Permutation perm = new Permutation(cycle1, _alphabet);
+            Permutation perm = permutation(cycle1);
             if (notch.startsWith("M")) {
-                return new MovingRotor(name, perm, notch.substring(1));
+                return new MovingRotor(name, perm,
+                                       symbols(notch.substring(1)));
             } else if (notch.startsWith("N")) {
                 return new FixedRotor(name, perm);
             } else {
@@ -150,14 +952,53 @@ public final class Main {
         }
     }
 
+    /**
+     * Set M up as described by the settings line SETTINGS, recording the
+     * setup in Metrics and as a SetupEvent, which is marked as failed if
+     * SETTINGS is rejected, and return whether the lines that follow are
+     * to be converted.
+     */
+    private boolean setUp(Machine M, String settings) {
+        if (Metrics.ENABLED) {
+            Metrics.setup();
+        }
+        Events.SetupEvent event = new Events.SetupEvent();
+        event.begin();
+        boolean done = false;
+        try {
+            boolean converting = applySettings(M, settings);
+            done = true;
+            return converting;
+        } finally {
+            if (event.shouldCommit()) {
+                event.length = settings.length();
+                event.rotors = M.numRotors();
+                event.failed = !done;
+                event.commit();
+            }
+        }
+    }
+
     /**
      * return.
      * @param M the machine.
      * @param settings the settings.
      */
-    private boolean setUp(Machine M, String settings) {
+    private boolean applySettings(Machine M, String settings) {
+        String key = settings.trim();
+        Setup cached;
+        synchronized (_setups) {
+            cached = _setups.get(key);
+        }
+        if (cached != null) {
+            M.restore(cached._assembly);
+            return cached._converting;
+        }
         boolean b1 = false;
         String[] settinglist = settings.trim().split(" ");
+        if (settinglist.length < M.numRotors() + 2) {
+            throw error("Missing rotors or initial positions");
+        }
         String[] rotors = new String[M.numRotors()];
         String steckered = "";
         for (int i = 1; i < settinglist.length; i = i + 1) {
@@ -178,39 +1019,178 @@ public final class Main {
                 b1 = false;
             }
         }
-        for (int i = 0; i < rotors.length - 1; i++) {
-            for (int j = i + 1; j < rotors.length; j++) {
-                if (rotors[i].equals(rotors[j])) {
-                    throw new EnigmaException("Repeated Rotor");
-                }
+        HashSet<String> used = new HashSet<>();
+        for (String rotor : rotors) {
+            if (!used.add(rotor)) {
+                throw new EnigmaException("Repeated Rotor");
             }
         }
         M.insertRotors(rotors);
         if (!M.getRotor(0).reflecting()) {
             throw new EnigmaException("First Rotor should be a reflector");
         }
-        M.setRotors(settinglist[M.numRotors() + 1]);
-        M.setPlugboard(new Permutation(steckered, _alphabet));
+        M.setRotors(symbols(settinglist[M.numRotors() + 1]));
+        M.setPlugboard(permutation(steckered));
+        Setup setup = new Setup(M.assembly(), b1);
+        synchronized (_setups) {
+            _setups.put(key, setup);
+        }
         return b1;
     }
 
     /**
-     * @param msg the msg.
+     * Return TEXT with each pair of hexadecimal digits in it replaced by
+     * the character with that value, if converting bytes, and otherwise
+     * TEXT itself.
+     */
+    private String symbols(String text) {
+        if (_byteSettings == null) {
+            return text;
+        }
+        if (text.length() % 2 != 0) {
+            throw error("bad hexadecimal symbols %s", text);
+        }
+        char[] chars = new char[text.length() / 2];
+        for (int i = 0; i < chars.length; i += 1) {
+            int high = Character.digit(text.charAt(2 * i), HEX);
+            int low = Character.digit(text.charAt(2 * i + 1), HEX);
+            if (high < 0 || low < 0) {
+                throw error("bad hexadecimal symbols %s", text);
+            }
+            chars[i] = (char) (high * HEX + low);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Return the permutation of _alphabet written in cycle notation as
+     * CYCLES, whose symbols are written as for symbols().
      */
-    private void printMessageLine(String msg) {
-        char[] chararr = msg.toCharArray();
-        StringBuilder s1 = new StringBuilder();
-        for (int i = 0; i < chararr.length; i++) {
-            if ((i - 5) >= 0) {
-                if ((i - 5) % 5 == 0) {
-                    s1.append(" ");
+    private Permutation permutation(String cycles) {
+        if (_byteSettings == null) {
+            return new Permutation(cycles, _alphabet);
+        }
+        int[] table = new int[_alphabet.size()];
+        for (int k = 0; k < table.length; k += 1) {
+            table[k] = k;
+        }
+        boolean[] seen = new boolean[table.length];
+        for (String cycle : Permutation.splitCycles(cycles)) {
+            String members = symbols(cycle.replaceAll("\\s", ""));
+            for (int i = 0; i < members.length(); i += 1) {
+                int from = _alphabet.toInt(members.charAt(i));
+                if (seen[from]) {
+                    throw error("symbol repeated in cycles %s", cycles);
                 }
+                seen[from] = true;
+                table[from] = _alphabet.toInt(
+                    members.charAt((i + 1) % members.length()));
             }
-            s1.append(chararr[i]).charAt(0);
         }
-        _output.print(s1 + "\n" + "");
+        return new Permutation(table, _alphabet);
     }
 
+    /**
+     * The effect of a settings line: the machine assembly it produces,
+     * and whether the message lines after it are converted.
+     */
+    private static final class Setup {
+        /**
+         * A setup producing ASSEMBLY, after which message lines are
+         * converted iff CONVERTING.
+         */
+        Setup(Machine.Assembly assembly, boolean converting) {
+            _assembly = assembly;
+            _converting = converting;
+        }
+
+        /**
+         * The machine assembly.
+         */
+        private final Machine.Assembly _assembly;
+
+        /**
+         * True iff message lines are converted.
+         */
+        private final boolean _converting;
+    }
+
+    /**
+     * The output of a batch of messages, and the error that ended it
+     * early, if any.
+     */
+    private static final class BatchOutput {
+        /**
+         * A batch that produced BYTES and was ended early by ERROR, or
+         * finished if ERROR is null.
+         */
+        BatchOutput(ByteArrayOutputStream bytes, EnigmaException error) {
+            _bytes = bytes;
+            _error = error;
+        }
+
+        /**
+         * The output of the lines converted.
+         */
+        private final ByteArrayOutputStream _bytes;
+
+        /**
+         * The error that ended the batch, or null.
+         */
+        private final EnigmaException _error;
+    }
+
+    /**
+     * Print MSG[0 .. N-1] as one grouped message line to WRITER.
+     */
+    private void printMessageLine(GroupWriter writer, char[] msg, int n) {
+        writer.write(msg, 0, n);
+        writer.endLine();
+        if (Metrics.ENABLED) {
+            Metrics.message();
+        }
+    }
+
+    /**
+     * Number of keys printed by --attack.
+     */
+    private static final int ATTACK_KEEP = 10;
+
+    /**
+     * Number of batch tasks per thread that may be pending at once.
+     */
+    private static final int BATCH_WINDOW = 4;
+
+    /**
+     * Number of input characters after which a batch is ended at the next
+     * settings line.
+     */
+    private static final int BATCH_SIZE = 1 << 16;
+
+    /**
+     * HTTP status codes used by the service.
+     */
+    private static final int HTTP_OK = 200, HTTP_BAD_REQUEST = 400,
+        HTTP_BAD_METHOD = 405;
+
+    /**
+     * Number of distinct settings lines whose setups are remembered.
+     */
+    private static final int SETUP_CACHE_SIZE = 256;
+
+    /**
+     * Setups of recent settings lines, by trimmed line, least recently
+     * used first.  Shared by the threads serving requests, so used only
+     * while locked.
+     */
+    private final LinkedHashMap<String, Setup> _setups =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Setup> e) {
+                return size() > SETUP_CACHE_SIZE;
+            }
+        };
+
     /**
      * alaphabet.
      */
@@ -226,8 +1206,143 @@ public final class Main {
      */
     private Scanner _config;
 
+    /**
+     * Name of the configuration file.
+     */
+    private String _configName;
+
+    /**
+     * Cache of compiled configurations, or null if none is used.
+     */
+    private ConfigCache _cache;
+
     /**
      * output.
      */
     private PrintStream _output;
+
+    /**
+     * Size, in characters, of the buffers used for streamed input and
+     * output.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Largest part of an input file mapped into memory at once.
+     */
+    private static final long MAP_SIZE = 1 << 30;
+
+    /**
+     * Radix of the symbols written for --bytes.
+     */
+    private static final int HEX = 16;
+
+    /**
+     * Prefix added to a configuration read for --bytes before it is
+     * looked up in the cache, since it describes a different machine
+     * than the same text read normally.
+     */
+    private static final byte[] BYTES_MARK =
+        "--bytes\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * True iff the --stream or --mmap option was given.
+     */
+    private boolean _stream;
+
+    /**
+     * True iff the --mmap option was given.
+     */
+    private boolean _mapped;
+
+    /**
+     * Streamed input.
+     */
+    private ReadableByteChannel _inputChannel;
+
+    /**
+     * Streamed output.
+     */
+    private WritableByteChannel _outputChannel;
+
+    /**
+     * Writer of grouped output.
+     */
+    private GroupWriter _writer;
+
+    /**
+     * Number of threads converting batches, or 0 to convert on the main
+     * thread.
+     */
+    private int _jobs;
+
+    /**
+     * Known plaintext to search for, or null if not searching.
+     */
+    private String _crib;
+
+    /**
+     * Name of the file of sample text for --attack, or null if not
+     * attacking.
+     */
+    private String _sample;
+
+    /**
+     * Settings line for --bytes, or null if converting text.
+     */
+    private String _byteSettings;
+
+    /**
+     * Port on which to serve requests, or -1 if not serving.
+     */
+    private int _port = -1;
+
+    /**
+     * The server started by --serve, or null.
+     */
+    private HttpServer _server;
+
+    /**
+     * Number of characters in each output group.
+     */
+    private int _groupSize = 5;
+
+    /**
+     * Number of message characters on each output line, or 0 for no
+     * limit.
+     */
+    private int _lineWidth;
+
+    /**
+     * Converted characters waiting to be grouped.
+     */
+    private char[] _converted;
+
+    /**
+     * True iff the next streamed character starts a line.
+     */
+    private boolean _lineStart = true;
+
+    /**
+     * True iff the last streamed character was a carriage return.
+     */
+    private boolean _afterReturn;
+
+    /**
+     * The settings line read so far, or null if the current line is a
+     * message.
+     */
+    private StringBuilder _settings;
+
+    /**
+     * True iff message lines are being converted.
+     */
+    private boolean _converting;
+
+    /**
+     * A high surrogate ending the last part of a streamed message line,
+     * held back until the rest of its pair is read, or 0 if none.
+     */
+    private char _held;
+
 }
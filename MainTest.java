@@ -0,0 +1,408 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.lang.management.ManagementFactory;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for Main, run on files as from the
+ *  command line.
+ *  @author Ziyi
+ */
+public class MainTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Messages converted correctly by CONFIG. */
+    private static final String GOOD =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM his shoulder Hiawatha\n"
+        + "Took the camera of rosewood\n"
+        + "* B Beta I II III AAAA\n"
+        + "Made of sliding folding rosewood\n";
+
+    /** Offset of the configuration hash in a cache entry, after its
+     *  magic number and version. */
+    private static final int HASH_OFFSET = 8;
+
+    /** A settings line that repeats a rotor, followed by a message. */
+    private static final String BAD =
+        "* B Beta I I III AAAA\n"
+        + "Neatly put it all together\n";
+
+    /** A configuration with the naval rotors I to V. */
+    private static String config() {
+        StringBuilder config = new StringBuilder(UPPER_STRING + "\n 5 3\n");
+        String[] moving = {"I Q", "II E", "III V", "IV J", "V Z"};
+        for (String rotor : moving) {
+            String[] parts = rotor.split(" ");
+            config.append(String.format(" %s M%s %s%n", parts[0], parts[1],
+                                        NAVALA.get(parts[0])));
+        }
+        config.append(String.format(" Beta N %s%n", NAVALA.get("Beta")));
+        config.append(String.format(" B R %s%n", NAVALA.get("B")));
+        return config.toString();
+    }
+
+    /** A configuration for --bytes, whose rotors are written with
+     *  adjacent cycles. */
+    private static String byteConfig() {
+        StringBuilder config = new StringBuilder();
+        for (int k = 0; k < Alphabet.BYTES; k += 1) {
+            config.append(String.format("%02x", k));
+        }
+        config.append("\n 3 2\n R R ");
+        for (int k = 0; k < Alphabet.BYTES; k += 2) {
+            config.append(String.format("(%02x%02x)", k, k + 1));
+        }
+        config.append("\n M1 M00 (010203)(0405)\n M2 M80 (ff10)(2030)\n");
+        return config.toString();
+    }
+
+    /** Run Main as for run(byte[], boolean, String, String...), with
+     *  INPUT and the output in the default character set and the
+     *  configuration config(). */
+    private String run(String input, boolean fails, String... options)
+        throws IOException {
+        byte[] output = run(input.getBytes(Charset.defaultCharset()), fails,
+                            config(), options);
+        return new String(output, Charset.defaultCharset());
+    }
+
+    /** Run Main with the options OPTIONS and the configuration CONFIG on
+     *  the input INPUT and return its output.  If FAILS, Main must report
+     *  an error, and otherwise it must not. */
+    private byte[] run(byte[] input, boolean fails, String config,
+                       String... options) throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            Path conf = Files.writeString(dir.resolve("test.conf"), config);
+            Path in = Files.write(dir.resolve("test.in"), input);
+            Path out = dir.resolve("test.out");
+            String[] args = new String[options.length + 3];
+            System.arraycopy(options, 0, args, 0, options.length);
+            args[options.length] = conf.toString();
+            args[options.length + 1] = in.toString();
+            args[options.length + 2] = out.toString();
+            try {
+                new Main(args).process();
+                assertFalse("no error reported", fails);
+            } catch (EnigmaException excp) {
+                assertTrue("unexpected error: " + excp.getMessage(), fails);
+            }
+            return Files.exists(out) ? Files.readAllBytes(out) : new byte[0];
+        } finally {
+            for (String name : new String[] {"test.conf", "test.in",
+                                             "test.out"}) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /** Send a request with METHOD and, unless it is null, the body BODY
+     *  to the local server on PORT, and return the status followed by a
+     *  newline and the response body. */
+    private String request(int port, String method, String body)
+        throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+            new URL("http://127.0.0.1:" + port + "/").openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status == HttpURLConnection.HTTP_OK
+            ? connection.getInputStream() : connection.getErrorStream();
+        try (in) {
+            return status + "\n"
+                + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Return a Main serving on a free port with configuration CONFIG,
+     *  written to a file in DIR. */
+    private Main serve(Path dir, String config) throws IOException {
+        Path conf = Files.writeString(dir.resolve("test.conf"), config);
+        Main main = new Main(new String[] {"--serve=0", conf.toString()});
+        main.process();
+        return main;
+    }
+
+    /** Runs Main, in a JVM of its own, on the arguments given to it, and
+     *  then prints whether the metrics MBean is registered and the
+     *  counters it reports. */
+    static class MetricsProbe {
+        /** Run Main on ARGS and print the metrics. */
+        public static void main(String... args) throws Exception {
+            new Main(args).process();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(Metrics.NAME);
+            StringBuilder report = new StringBuilder();
+            report.append(server.isRegistered(name));
+            for (String counter : COUNTERS) {
+                report.append(' ');
+                if (server.isRegistered(name)) {
+                    report.append(server.getAttribute(name, counter));
+                } else {
+                    report.append(Metrics.class.getMethod("get" + counter)
+                                  .invoke(Metrics.get()));
+                }
+            }
+            System.out.println(report);
+        }
+
+        /** Attributes of the metrics MBean that are printed. */
+        static final String[] COUNTERS = {
+            "CharactersConverted", "MessagesProcessed", "RotorAdvances",
+            "Setups", "ConfigLoads"
+        };
+    }
+
+    /** Return the report printed by MetricsProbe, run on INPUT with the
+     *  system property enigma.metrics set to ENABLED. */
+    private String probeMetrics(String input, boolean enabled)
+        throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path conf = Files.writeString(dir.resolve("test.conf"), config());
+        Path in = Files.writeString(dir.resolve("test.in"), input);
+        Path out = dir.resolve("test.out");
+        try {
+            Process probe = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString(),
+                "-Denigma.metrics=" + enabled,
+                "-cp", System.getProperty("java.class.path"),
+                MetricsProbe.class.getName(),
+                conf.toString(), in.toString(), out.toString())
+                .redirectErrorStream(true).start();
+            String report = new String(probe.getInputStream().readAllBytes(),
+                                       StandardCharsets.UTF_8).trim();
+            assertEquals(report, 0, probe.waitFor());
+            return report;
+        } finally {
+            Files.deleteIfExists(conf);
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+            Files.delete(dir);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void errorKeepsOutputTest() throws IOException {
+        String good = run(GOOD, false);
+        assertEquals(3, good.split("\n").length);
+        assertEquals(good, run(GOOD + BAD, true));
+    }
+
+    @Test
+    public void layoutTest() throws IOException {
+        String msg = "* B Beta III IV I AXLE\nFROM his shoulder Hiawatha\n";
+        String grouped = run(msg, false);
+        assertTrue(grouped, grouped.matches("([A-Z]{5} ){4}[A-Z]{3}\n"));
+        String letters = grouped.replaceAll("[ \n]", "");
+        for (String[] options : new String[][] {
+                {"--group=3", "--width=6"}, {"--stream", "--group=3",
+                                              "--width=6"}}) {
+            String custom = run(msg, false, options);
+            assertTrue(custom, custom.matches(
+                           "([A-Z]{3} [A-Z]{3}\n){3}[A-Z]{3} [A-Z]{2}\n"));
+            assertEquals(letters, custom.replaceAll("[ \n]", ""));
+        }
+        assertEquals(letters + "\n", run(msg, false, "--group=23"));
+        assertEquals("", run(msg, true, "--group=3", "--width=7"));
+        assertEquals("", run(msg, true, "--group=5", "--width=2"));
+        assertEquals("", run(msg, true, "--group=0"));
+    }
+
+    @Test
+    public void streamErrorKeepsOutputTest() throws IOException {
+        String good = run(GOOD, false);
+        assertEquals(good, run(GOOD, false, "--stream"));
+        assertEquals(good, run(GOOD + BAD, true, "--stream"));
+        assertEquals(good, run(GOOD + BAD, true, "--mmap"));
+    }
+
+    @Test
+    public void jobsErrorKeepsOutputTest() throws IOException {
+        String good = run(GOOD, false);
+        assertEquals(good, run(GOOD, false, "--jobs=2"));
+        assertEquals(good, run(GOOD + BAD, true, "--jobs=2"));
+    }
+
+    @Test
+    public void serveTest() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        try {
+            Main main = serve(dir, config());
+            try {
+                int port = main.port();
+                assertEquals("200\n" + run(GOOD, false),
+                             request(port, "POST", GOOD));
+                String bad = request(port, "POST", GOOD + BAD);
+                assertTrue(bad, bad.startsWith("400\nError: "));
+                String get = request(port, "GET", null);
+                assertTrue(get, get.startsWith("405\n"));
+                assertEquals("200\n" + run(GOOD, false),
+                             request(port, "POST", GOOD));
+            } finally {
+                main.stop();
+            }
+            try {
+                serve(dir, UPPER_STRING + "\n 5 3\n I MQ (AB\n").stop();
+                fail("served a malformed configuration");
+            } catch (EnigmaException excp) {
+                assertNotNull(excp.getMessage());
+            }
+        } finally {
+            Files.deleteIfExists(dir.resolve("test.conf"));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void cacheTest() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        String option = "--cache=" + dir;
+        byte[] text = config().getBytes(StandardCharsets.UTF_8);
+        ConfigCache cache = new ConfigCache(dir.toString());
+        try {
+            String expected = run(GOOD, false);
+            assertNull(cache.get(text));
+            assertEquals(expected, run(GOOD, false, option));
+            assertNotNull(cache.get(text));
+            assertEquals(expected, run(GOOD, false, option));
+            Path[] entries;
+            try (Stream<Path> list = Files.list(dir)) {
+                entries = list.toArray(Path[]::new);
+            }
+            assertEquals(1, entries.length);
+            Path entry = entries[0];
+            byte[] good = Files.readAllBytes(entry);
+
+            byte[] stale = good.clone();
+            stale[HASH_OFFSET] ^= 1;
+            Files.write(entry, stale);
+            assertNull(cache.get(text));
+            assertEquals(expected, run(GOOD, false, option));
+            assertArrayEquals(good, Files.readAllBytes(entry));
+
+            Files.write(entry, Arrays.copyOf(good, good.length / 2));
+            assertNull(cache.get(text));
+            assertEquals(expected, run(GOOD, false, option));
+            assertArrayEquals(good, Files.readAllBytes(entry));
+        } finally {
+            try (Stream<Path> list = Files.list(dir)) {
+                for (Path file : list.toArray(Path[]::new)) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws IOException, InterruptedException {
+        int letters = run(GOOD, false).replaceAll("[ \n]", "").length();
+        assertEquals(String.format("true %d 3 %d 2 1", letters, letters),
+                     probeMetrics(GOOD, true));
+        assertEquals("false 0 0 0 0 0", probeMetrics(GOOD, false));
+    }
+
+    @Test
+    public void bytesTest() throws IOException {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i * 7);
+        }
+        String option = "--bytes=* R M1 M2 0102 (0a0b)(0c0d) (0e0f)";
+        byte[] cipher = run(data, false, byteConfig(), option);
+        assertEquals(data.length, cipher.length);
+        assertFalse(Arrays.equals(data, cipher));
+        assertArrayEquals(data, run(cipher, false, byteConfig(), option));
+        for (String plugs : new String[] {"(0a) (0a0b)", "(0a0b0a)",
+                                          "(0a0b) (0c0b)"}) {
+            run(data, true, byteConfig(), "--bytes=* R M1 M2 0102 " + plugs);
+        }
+    }
+
+    @Test
+    public void eventsTest() throws IOException {
+        List<RecordedEvent> events = new ArrayList<>();
+        Path file = Files.createTempFile("enigma", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("enigma.Convert").withThreshold(Duration.ZERO);
+            recording.enable("enigma.Setup").withThreshold(Duration.ZERO);
+            recording.start();
+            run(GOOD + BAD, true);
+            recording.stop();
+            recording.dump(file);
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                if (name.equals("enigma.Convert")
+                    || name.equals("enigma.Setup")) {
+                    events.add(event);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        events.sort((e1, e2) -> e1.getStartTime().compareTo(e2.getStartTime()));
+        String[] expected = {"Setup", "Convert", "Convert", "Setup",
+                             "Convert", "Setup"};
+        assertEquals(expected.length, events.size());
+        for (int i = 0; i < expected.length; i += 1) {
+            RecordedEvent event = events.get(i);
+            assertEquals("enigma." + expected[i],
+                         event.getEventType().getName());
+            assertEquals(5, event.getInt("rotors"));
+            if (expected[i].equals("Setup")) {
+                assertEquals(i == expected.length - 1,
+                             event.getBoolean("failed"));
+            }
+        }
+        assertEquals("FROM his shoulder Hiawatha".length(),
+                     events.get(1).getInt("length"));
+    }
+
+}
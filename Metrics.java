@@ -0,0 +1,155 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/** Counters of the work done by machines and by Main, exported as the
+ *  platform MBean named NAME.  The counters are LongAdders, which spread
+ *  concurrent updates over separate cells, so threads converting at once
+ *  do not contend, and machines add to them once per bulk conversion
+ *  rather than once per character.  Collection is off unless the system
+ *  property "enigma.metrics" is "true", since starting the platform MBean
+ *  server adds a noticeable delay to short runs; when it is off, ENABLED
+ *  is false, nothing is counted and no MBean is registered.
+ *  @author Ziyi
+ */
+final class Metrics implements MetricsMBean {
+
+    /** True iff metrics are collected. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Name under which the metrics are registered. */
+    static final String NAME = "enigma:type=Metrics";
+
+    /** Record that CHARS characters were converted, taking ADVANCES
+     *  keypresses, NOTCHEVENTS of which moved more than the rightmost
+     *  rotor. */
+    static void converted(long chars, long advances, long notchEvents) {
+        INSTANCE._characters.add(chars);
+        INSTANCE._advances.add(advances);
+        INSTANCE._notchEvents.add(notchEvents);
+    }
+
+    /** Record that a message line was converted. */
+    static void message() {
+        INSTANCE._messages.increment();
+    }
+
+    /** Record that a settings line was set up. */
+    static void setup() {
+        INSTANCE._setups.increment();
+    }
+
+    /** Record that a configuration was loaded in NANOS nanoseconds. */
+    static void configLoaded(long nanos) {
+        INSTANCE._configLoads.increment();
+        INSTANCE._configNanos.add(nanos);
+        INSTANCE._lastConfigNanos = nanos;
+    }
+
+    /** Return the metrics of this process. */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    @Override
+    public long getCharactersConverted() {
+        return _characters.sum();
+    }
+
+    @Override
+    public synchronized double getCharactersPerSecond() {
+        long now = System.nanoTime(), characters = _characters.sum();
+        double rate = (characters - _sampledCharacters) * NANOS_PER_SECOND
+            / Math.max(1, now - _sampledAt);
+        _sampledAt = now;
+        _sampledCharacters = characters;
+        return rate;
+    }
+
+    @Override
+    public long getMessagesProcessed() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getRotorAdvances() {
+        return _advances.sum();
+    }
+
+    @Override
+    public long getNotchEvents() {
+        return _notchEvents.sum();
+    }
+
+    @Override
+    public long getSetups() {
+        return _setups.sum();
+    }
+
+    @Override
+    public long getConfigLoads() {
+        return _configLoads.sum();
+    }
+
+    @Override
+    public double getLastConfigLoadMillis() {
+        return _lastConfigNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTotalConfigLoadMillis() {
+        return _configNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    /** Register ME with the platform MBean server, if metrics are
+     *  collected.  Failures are ignored, since the metrics are only an
+     *  aid to monitoring. */
+    private static void register(Metrics me) {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(me, MetricsMBean.class),
+                new ObjectName(NAME));
+        } catch (JMException | SecurityException excp) {
+            return;
+        }
+    }
+
+    /** Nanoseconds in a second and in a millisecond. */
+    private static final double NANOS_PER_SECOND = 1e9, NANOS_PER_MILLI = 1e6;
+
+    /** The metrics of this process. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    static {
+        register(INSTANCE);
+    }
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+    /** Keypresses while converting. */
+    private final LongAdder _advances = new LongAdder();
+    /** Keypresses that moved more than the rightmost rotor. */
+    private final LongAdder _notchEvents = new LongAdder();
+    /** Message lines converted. */
+    private final LongAdder _messages = new LongAdder();
+    /** Settings lines set up. */
+    private final LongAdder _setups = new LongAdder();
+    /** Configurations loaded. */
+    private final LongAdder _configLoads = new LongAdder();
+    /** Total nanoseconds spent loading configurations. */
+    private final LongAdder _configNanos = new LongAdder();
+    /** Nanoseconds spent on the last configuration load. */
+    private volatile long _lastConfigNanos;
+    /** Time of the last sample of the conversion rate. */
+    private long _sampledAt = System.nanoTime();
+    /** Characters converted at the last sample of the conversion rate. */
+    private long _sampledCharacters;
+}
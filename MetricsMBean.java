@@ -0,0 +1,40 @@
+package enigma;
+
+/** The management interface of Metrics, through which JMX clients read
+ *  the counters of the work done by machines in this process.
+ *  @author Ziyi
+ */
+public interface MetricsMBean {
+
+    /** Return the number of characters (or bytes) converted. */
+    long getCharactersConverted();
+
+    /** Return the number of characters converted per second since the
+     *  previous call, or since collection began on the first call. */
+    double getCharactersPerSecond();
+
+    /** Return the number of message lines converted by Main. */
+    long getMessagesProcessed();
+
+    /** Return the number of keypresses for which rotors were advanced
+     *  while converting. */
+    long getRotorAdvances();
+
+    /** Return the number of those keypresses that moved a rotor other
+     *  than the rightmost, because some rotor was at a notch. */
+    long getNotchEvents();
+
+    /** Return the number of settings lines set up by Main. */
+    long getSetups();
+
+    /** Return the number of configurations loaded by Main. */
+    long getConfigLoads();
+
+    /** Return the time taken by the last configuration load, in
+     *  milliseconds. */
+    double getLastConfigLoadMillis();
+
+    /** Return the total time taken by configuration loads, in
+     *  milliseconds. */
+    double getTotalConfigLoadMillis();
+}
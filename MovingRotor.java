@@ -16,15 +16,38 @@ class MovingRotor extends Rotor {
         super(name, perm);
         _notches = notches;
         _permutation = perm;
+        int n = perm.size();
+        boolean[] notched = new boolean[n];
+        for (int cp : notches.codePoints().toArray()) {
+            int k = perm.alphabet().toIndex(cp);
+            if (k >= 0) {
+                notched[k] = true;
+            }
+        }
+        _toNotch = new int[n];
+        int d = -1;
+        for (int k = 2 * n - 1; k >= 0; k--) {
+            if (notched[k % n]) {
+                d = 0;
+            } else if (d >= 0) {
+                d += 1;
+            }
+            _toNotch[k % n] = d;
+        }
     }
     @Override
     boolean atNotch() {
-        for (int i = 0; i < _notches.length(); i++) {
-            if (alphabet().toInt(_notches.charAt(i)) == this.setting()) {
-                return true;
-            }
-        }
-        return false;
+        return _toNotch[setting()] == 0;
+    }
+
+    /** Return the characters at which I have notches. */
+    String notches() {
+        return _notches;
+    }
+
+    @Override
+    int notchDistance(int setting) {
+        return _toNotch[setting];
     }
 
     @Override
@@ -39,4 +62,7 @@ class MovingRotor extends Rotor {
     private Permutation _permutation;
     /** notches. */
     private String _notches;
+    /** _toNotch[s] is the number of advances from setting s to a notch,
+     *  or -1 if I have no notches. */
+    private int[] _toNotch;
 }
@@ -70,6 +70,36 @@ public class MovingRotorTest {
         rotor.set(25);
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
+    @Test
+    public void checkRotorWithoutTables() {
+        setRotor("I", NAVALA, "");
+        rotor.setTableLimit(0);
+        assertNull(rotor.forwardTable());
+        rotor.set(25);
+        checkRotor("Rotor I untabled", UPPER_STRING, NAVALZ_MAP.get("I"));
+    }
+
+    @Test
+    public void checkWideRotorWithoutTables() {
+        int n = Rotor.TABLE_LIMIT + 1;
+        int[] chars = new int[n], table = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            chars[k] = 0x100 + k;
+            table[k] = (k * 5 + 3) % n;
+        }
+        Rotor wide = new FixedRotor("W", new Permutation(table,
+                                                         new Alphabet(chars)));
+        assertNull(wide.forwardTable());
+        assertNull(wide.backwardTable());
+        for (int s = 0; s < n; s += 7) {
+            for (int p = 0; p < n; p += 1) {
+                int e = wide.convertForward(p, s);
+                assertEquals(Math.floorMod(table[(p + s) % n] - s, n), e);
+                assertEquals(p, wide.convertBackward(e, s));
+            }
+        }
+    }
+
     @Test
     public void checkatnotch() {
         Alphabet alpha1 = new Alphabet();
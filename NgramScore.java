@@ -0,0 +1,83 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A table of the log probabilities of the n-grams (runs of N letters)
+ *  of an alphabet, estimated from a sample of text, for scoring how much
+ *  a trial decryption resembles that text.
+ *  @author Ziyi
+ */
+class NgramScore {
+
+    /** A table of the N-grams of ALPHABET, counted in the letters of
+     *  SAMPLE.  Characters of SAMPLE outside ALPHABET (after upper-casing)
+     *  are skipped.  N-grams that do not occur are scored as if they
+     *  occurred a tenth of a time. */
+    NgramScore(Alphabet alphabet, int n, String sample) {
+        if (n < 1 || Math.pow(alphabet.size(), n) > MAX_TABLE) {
+            throw error("bad n-gram length %d", n);
+        }
+        _alphabet = alphabet;
+        _n = n;
+        _modulus = (int) KeySpace.power(alphabet.size(), n - 1);
+        double[] counts = new double[_modulus * alphabet.size()];
+        int index = 0, run = 0;
+        long total = 0;
+        for (int i = 0; i < sample.length();
+             i += Character.charCount(sample.codePointAt(i))) {
+            int c = alphabet.toIndex(
+                Character.toUpperCase(sample.codePointAt(i)));
+            if (c < 0) {
+                continue;
+            }
+            index = (index % _modulus) * alphabet.size() + c;
+            run += 1;
+            if (run >= n) {
+                counts[index] += 1;
+                total += 1;
+            }
+        }
+        if (total == 0) {
+            throw error("sample has no %d-grams", n);
+        }
+        _scores = counts;
+        for (int k = 0; k < counts.length; k += 1) {
+            _scores[k] = Math.log10(Math.max(counts[k], UNSEEN) / total);
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the sum of the scores of the n-grams in TEXT[0 .. LENGTH-1],
+     *  a text of alphabet indices.  Higher scores are better. */
+    double score(int[] text, int length) {
+        int size = _alphabet.size();
+        int index = 0;
+        double sum = 0;
+        for (int i = 0; i < length; i += 1) {
+            index = (index % _modulus) * size + text[i];
+            if (i + 1 >= _n) {
+                sum += _scores[index];
+            }
+        }
+        return sum;
+    }
+
+    /** Largest number of entries in a table. */
+    private static final double MAX_TABLE = 1 << 24;
+    /** Count assumed for n-grams that do not occur. */
+    private static final double UNSEEN = 0.1;
+
+    /** Alphabet of the n-grams. */
+    private final Alphabet _alphabet;
+    /** Number of letters in each n-gram. */
+    private final int _n;
+    /** Number of (n-1)-grams. */
+    private final int _modulus;
+    /** Log probability of each n-gram, indexed by its letters' indices as
+     *  the digits of a number in base alphabet size. */
+    private final double[] _scores;
+}
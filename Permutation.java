@@ -1,5 +1,9 @@
 package enigma;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -17,8 +21,124 @@ class Permutation {
         _alphabet = alphabet;
         _cycles = cycles.trim();
         _cyclelist = cycles.split(" ");
+        _forward = new int[size()];
+        _inverse = new int[size()];
+        _listed = new boolean[size()];
+        for (int i = 0; i < size(); i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+        compile(_cycles);
+    }
 
+    /** Set this Permutation to the one that maps each index K of ALPHABET
+     *  to FORWARD[K]. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (forward.length != size()) {
+            throw error("permutation table has wrong size");
+        }
+        _forward = forward.clone();
+        _inverse = new int[size()];
+        _listed = new boolean[size()];
+        Arrays.fill(_inverse, -1);
+        for (int k = 0; k < size(); k++) {
+            if (_forward[k] < 0 || _forward[k] >= size()
+                || _inverse[_forward[k]] >= 0) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[_forward[k]] = k;
+            _listed[k] = _forward[k] != k;
+        }
+        StringBuilder cycles = new StringBuilder();
+        boolean[] seen = new boolean[size()];
+        for (int k = 0; k < size(); k++) {
+            if (!seen[k] && _forward[k] != k) {
+                cycles.append(cycles.length() == 0 ? "(" : " (");
+                for (int j = k; !seen[j]; j = _forward[j]) {
+                    seen[j] = true;
+                    cycles.appendCodePoint(_alphabet.toCodePoint(j));
+                }
+                cycles.append(')');
+            }
+        }
+        _cycles = cycles.toString();
+        _cyclelist = _cycles.split(" ");
+    }
 
+    /** Add the cycles written in CYCLES, in the notation accepted by the
+     *  constructor, to my forward and inverse tables.  All of CYCLES is
+     *  checked before either table is changed, so that if it is
+     *  rejected, they still hold the same permutation as before. */
+    private void compile(String cycles) {
+        int[] members = new int[size()];
+        ArrayList<Integer> ends = new ArrayList<>();
+        boolean[] used = new boolean[size()];
+        int count = 0;
+        for (String cycle : splitCycles(cycles)) {
+            for (int i = 0; i < cycle.length(); i += Character.charCount(
+                     cycle.codePointAt(i))) {
+                int ch = cycle.codePointAt(i);
+                if (Character.isWhitespace(ch)) {
+                    continue;
+                }
+                int k = _alphabet.toIndex(ch);
+                if (k < 0) {
+                    throw error("bad cycle character '%c'", ch);
+                }
+                if (used[k] || _listed[k]) {
+                    throw error("character '%c' repeated in cycles", ch);
+                }
+                used[k] = true;
+                members[count++] = k;
+            }
+            ends.add(count);
+        }
+        int start = 0;
+        for (int end : ends) {
+            for (int i = start; i < end; i++) {
+                _listed[members[i]] = true;
+                link(members[i], members[i + 1 < end ? i + 1 : start]);
+            }
+            start = end;
+        }
+    }
+
+    /** Return the contents of the cycles written in CYCLES, in the
+     *  notation accepted by the constructor, without their parentheses.
+     *  Cycles may be adjacent or separated by whitespace, and nothing
+     *  else may come between them. */
+    static List<String> splitCycles(String cycles) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i += Character.charCount(
+                 cycles.codePointAt(i))) {
+            int ch = cycles.codePointAt(i);
+            if (ch == '(') {
+                if (start >= 0) {
+                    throw error("nested cycle in %s", cycles);
+                }
+                start = i + 1;
+            } else if (ch == ')') {
+                if (start < 0) {
+                    throw error("unbalanced cycle in %s", cycles);
+                }
+                result.add(cycles.substring(start, i));
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(ch)) {
+                throw error("bad cycle character '%c'", ch);
+            }
+        }
+        if (start >= 0) {
+            throw error("unbalanced cycle in %s", cycles);
+        }
+        return result;
+    }
+
+    /** Record that this permutation maps index FROM to index TO. */
+    private void link(int from, int to) {
+        _forward[from] = to;
+        _inverse[to] = from;
     }
     /** Return false if parenthethis get wrong in cycles. */
     boolean checkparen() {
@@ -85,8 +205,9 @@ class Permutation {
                 }
             }
         }
-        for (int i = 0; i < cycle.length(); i++) {
-            if (_cycles.indexOf(cycle.charAt(i)) >= 0) {
+        for (int i = 1; i < cycle.length() - 1; i++) {
+            char ch = cycle.charAt(i);
+            if (_alphabet.contains(ch) && _cycles.indexOf(ch) >= 0) {
                 throw EnigmaException.error("addcycle error");
             }
         }
@@ -94,15 +215,27 @@ class Permutation {
         if ((cycle.charAt(0) != '(') || (char2 != ')')) {
             throw EnigmaException.error("addcycle error");
         }
+        compile(cycle);
         _cycles = _cycles + cycle;
-
+        _cycleTable = null;
+        _signature = null;
     }
 
-    /** Return the value of P modulo the size of this permutation. */
+    /** Return the value of P modulo the size of this permutation.  P is
+     *  usually within one size() of the range, so that case avoids the
+     *  division. */
     final int wrap(int p) {
-        int r = p % size();
+        int n = size();
+        if (p >= 0 && p < n) {
+            return p;
+        } else if (p >= n && p < 2 * n) {
+            return p - n;
+        } else if (p < 0 && p >= -n) {
+            return p + n;
+        }
+        int r = p % n;
         if (r < 0) {
-            r += size();
+            r += n;
         }
         return r;
     }
@@ -115,65 +248,30 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int index = wrap(p);
-        char newchar = permute(_alphabet.toChar(index));
-        return _alphabet.toInt(newchar);
-
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int index = wrap(c);
-        char newchar = invert(_alphabet.toChar(index));
-        return _alphabet.toInt(newchar);
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        String curstr = String.valueOf(p);
-        int curindex = _cycles.indexOf(curstr);
-        int index = 0;
-        char result = p;
-        int n1 = curindex + 1;
-        if (_cycles.indexOf(curstr) > 0 && _cycles.charAt(n1) == ')') {
-            for (int i = 0; i <= curindex + 1; i++) {
-                if (_cycles.charAt(i) == '(') {
-                    index = i;
-                }
-            }
-            result = _cycles.charAt(index + 1);
-        } else if (_cycles.indexOf(curstr) > 0) {
-            if (_cycles.indexOf(_cycles.charAt(curindex + 1)) > 0) {
-                result = _cycles.charAt(curindex + 1);
-            }
+        if (!_alphabet.contains(p)) {
+            return p;
         }
-        return result;
-
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        String curstr = String.valueOf(c);
-        int curind = _cycles.indexOf(curstr);
-        int index = 0;
-        char result = c;
-
-        for (int i = curind; i < _cycles.length(); i++) {
-            if (i > 0 && _cycles.charAt(i) == ')') {
-                index = i;
-                break;
-            }
-        }
-        if (_cycles.indexOf(curstr) > 0 && _cycles.charAt(curind - 1) == '(') {
-            result = _cycles.charAt(index - 1);
-        } else if (_cycles.indexOf(curstr) > 0) {
-            if (_cycles.indexOf(_cycles.charAt(curind - 1)) > 0) {
-                result = _cycles.charAt(curind - 1);
-            }
+        if (!_alphabet.contains(c)) {
+            return c;
         }
-        return result;
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -184,22 +282,115 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _cycles.length(); i++) {
-            char char1 = _cycles.charAt(i);
-            char char2 = _cycles.charAt(i - 1);
-            char char3 = _cycles.charAt(i + 1);
-            if (_alphabet.contains(char1) && (char2 == '(') && (char3 == ')')) {
+        for (int k = 0; k < size(); k++) {
+            if (_forward[k] == k) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Return the permutation that applies OTHER and then this one, so
+     *  that it maps each index K to permute(OTHER.permute(K)).  OTHER
+     *  must permute an alphabet of my size. */
+    Permutation compose(Permutation other) {
+        if (other.size() != size()) {
+            throw error("composed permutations have different sizes");
+        }
+        int[] table = new int[size()];
+        for (int k = 0; k < table.length; k++) {
+            table[k] = _forward[other._forward[k]];
+        }
+        return new Permutation(table, _alphabet);
+    }
+
+    /** Return the inverse of this permutation. */
+    Permutation inverse() {
+        return new Permutation(_inverse, _alphabet);
+    }
+
+    /** Return this permutation applied K times, which for negative K is
+     *  its inverse applied -K times.  Each cycle is rotated as a whole,
+     *  so this takes time proportional to size() whatever K is. */
+    Permutation power(int k) {
+        int[] table = new int[size()];
+        for (int[] cycle : cycles()) {
+            int len = cycle.length;
+            int shift = Math.floorMod(k, len);
+            for (int i = 0, j = shift; i < len; i++, j++) {
+                if (j == len) {
+                    j = 0;
+                }
+                table[cycle[i]] = cycle[j];
+            }
+        }
+        return new Permutation(table, _alphabet);
+    }
+
+    /** Return my cycles, including those of length 1, as arrays of
+     *  indices.  Each cycle starts at its smallest index, each index
+     *  maps to the next one in its cycle, and the cycles are in order
+     *  of their first indices.  The result is computed on first use and
+     *  shared afterwards, so it must not be modified. */
+    int[][] cycles() {
+        if (_cycleTable == null) {
+            ArrayList<int[]> cycles = new ArrayList<>();
+            boolean[] seen = new boolean[size()];
+            int[] cycle = new int[size()];
+            for (int k = 0; k < size(); k++) {
+                int len = 0;
+                for (int j = k; !seen[j]; j = _forward[j]) {
+                    seen[j] = true;
+                    cycle[len++] = j;
+                }
+                if (len > 0) {
+                    cycles.add(Arrays.copyOf(cycle, len));
+                }
+            }
+            _cycleTable = cycles.toArray(new int[0][]);
+        }
+        return _cycleTable;
+    }
+
+    /** Return my cycle type: the lengths of my cycles, including those
+     *  of length 1, in decreasing order.  Two permutations are conjugate
+     *  iff they have the same cycle type.  The result is computed on
+     *  first use and shared afterwards, so it must not be modified. */
+    int[] signature() {
+        if (_signature == null) {
+            int[][] cycles = cycles();
+            int[] lengths = new int[cycles.length];
+            for (int i = 0; i < cycles.length; i++) {
+                lengths[i] = cycles[i].length;
+            }
+            Arrays.sort(lengths);
+            for (int i = 0, j = lengths.length - 1; i < j; i++, j--) {
+                int t = lengths[i];
+                lengths[i] = lengths[j];
+                lengths[j] = t;
+            }
+            _signature = lengths;
+        }
+        return _signature;
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
     /** cycles. */
     private String _cycles;
     /** list of cycles. */
     private String[] _cyclelist;
+    /** _forward[k] is the index that index K maps to. */
+    private int[] _forward;
+    /** _inverse[k] is the index that maps to index K. */
+    private int[] _inverse;
+    /** _listed[k] is true iff index K appears in one of my cycles,
+     *  including one written as a fixed point such as "(A)". */
+    private boolean[] _listed;
+    /** My cycles, as returned by cycles(), or null if not yet computed. */
+    private int[][] _cycleTable;
+    /** My cycle type, as returned by signature(), or null if not yet
+     *  computed. */
+    private int[] _signature;
 
 }
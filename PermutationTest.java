@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -66,4 +68,134 @@ public class PermutationTest {
         assertEquals(18, output4);
     }
 
+    @Test
+    public void addCycleTest() {
+        Permutation perm1 = new Permutation("(AB)", new Alphabet());
+        perm1.addCycle("(CDE)");
+        assertEquals('B', perm1.permute('A'));
+        assertEquals('C', perm1.permute('E'));
+        assertEquals('E', perm1.invert('C'));
+        assertEquals(5, perm1.permute(5));
+    }
+
+    @Test
+    public void rejectedCycleTest() {
+        Permutation perm1 = new Permutation("(AB)", new Alphabet());
+        for (String bad : new String[] {"(CD1)", "(CDC)", "(CDA)",
+                                        "(CD", "(CD(E))"}) {
+            try {
+                perm1.addCycle(bad);
+                fail("accepted " + bad);
+            } catch (EnigmaException excp) {
+                assertEquals('B', perm1.permute('A'));
+                assertEquals('C', perm1.permute('C'));
+                assertEquals('D', perm1.invert('D'));
+                assertEquals(25, perm1.cycles().length);
+            }
+        }
+        Permutation perm2 = new Permutation("(A) (BC)", new Alphabet());
+        perm2.addCycle("(D)");
+        for (String bad : new String[] {"(AE)", "(EDF)"}) {
+            try {
+                perm2.addCycle(bad);
+                fail("accepted " + bad);
+            } catch (EnigmaException excp) {
+                assertEquals('A', perm2.permute('A'));
+                assertEquals('D', perm2.permute('D'));
+                assertEquals('E', perm2.invert('E'));
+                assertEquals(25, perm2.cycles().length);
+            }
+        }
+        for (String bad : new String[] {"(A) (AB)", "(A)(BA)", "(AB) (B)"}) {
+            try {
+                new Permutation(bad, new Alphabet());
+                fail("accepted " + bad);
+            } catch (EnigmaException excp) {
+                assertNotNull(excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void tableConstructorTest() {
+        perm = new Permutation(NAVALA.get("I"), UPPER);
+        int[] table = new int[UPPER.size()];
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = perm.permute(i);
+        }
+        perm = new Permutation(table, UPPER);
+        checkPerm("table", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
+    @Test
+    public void characterRangeTest() {
+        Alphabet range = new CharacterRange('A', 'Z');
+        assertEquals(UPPER.size(), range.size());
+        for (char c = 'A'; c <= 'Z'; c += 1) {
+            assertEquals(UPPER.toInt(c), range.toInt(c));
+        }
+        assertEquals(-1, UPPER.toInt('1'));
+        assertEquals(-1, range.toInt('1'));
+        perm = new Permutation(NAVALA.get("I"), range);
+        checkPerm("range", UPPER_STRING, NAVALA_MAP.get("I"));
+        assertEquals('1', perm.permute('1'));
+    }
+
+    @Test
+    public void derangementTest() {
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+        assertFalse(new Permutation("(AB)", UPPER).derangement());
+        assertFalse(new Permutation("(A) (BC)", new Alphabet("ABC"))
+                    .derangement());
+        assertTrue(new Permutation("(ABC)", new Alphabet("ABC"))
+                   .derangement());
+    }
+
+    @Test
+    public void composeTest() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        Permutation q = new Permutation(NAVALA.get("II"), UPPER);
+        Permutation pq = p.compose(q);
+        for (int k = 0; k < UPPER.size(); k += 1) {
+            assertEquals(p.permute(q.permute(k)), pq.permute(k));
+            assertEquals(k, p.inverse().permute(p.permute(k)));
+        }
+        assertEquals(UPPER.size(),
+                     p.compose(p.inverse()).signature().length);
+    }
+
+    @Test
+    public void powerTest() {
+        Alphabet abc = new Alphabet("ABCDEF");
+        Permutation p = new Permutation("(ABC) (DE)", abc);
+        assertEquals('C', p.power(2).permute('A'));
+        assertEquals('D', p.power(4).permute('D'));
+        assertEquals('A', p.power(6).permute('A'));
+        assertEquals('C', p.power(-1).permute('A'));
+        assertEquals('B', p.power(-5).permute('A'));
+        assertEquals('E', p.power(1 << 30 | 1).permute('D'));
+        Permutation q = p;
+        for (int k = 1; k <= 7; k += 1) {
+            for (int c = 0; c < abc.size(); c += 1) {
+                assertEquals(q.permute(c), p.power(k).permute(c));
+            }
+            q = q.compose(p);
+        }
+    }
+
+    @Test
+    public void cyclesTest() {
+        Permutation p = new Permutation("(CFB) (DE)", new Alphabet("ABCDEF"));
+        assertTrue(Arrays.deepEquals(new int[][] {{0}, {1, 2, 5}, {3, 4}},
+                                     p.cycles()));
+        assertArrayEquals(new int[] {3, 2, 1}, p.signature());
+        p.addCycle("(A)");
+        assertArrayEquals(new int[] {3, 2, 1}, p.signature());
+        Permutation r = new Permutation(NAVALA.get("B"), UPPER);
+        int[] pairs = new int[UPPER.size() / 2];
+        Arrays.fill(pairs, 2);
+        assertArrayEquals(pairs, r.signature());
+    }
+
 }
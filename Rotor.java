@@ -2,7 +2,11 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor's
+ *  name, permutation and notches never change, and a machine keeps the
+ *  settings of its rotors itself, using the conversions that take an
+ *  explicit setting, so any number of machines on any threads may share
+ *  one rotor.  setting() and set() are for a rotor used on its own.
  *  @author Ziyi
  */
 class Rotor {
@@ -49,18 +53,28 @@ class Rotor {
         return _setting;
     }
 
-    /** Set setting() to POSN.  */
+    /** Set setting() to POSN, modulo size().  */
     void set(int posn) {
-        _setting =  posn;
+        _setting = mod(posn, size());
     }
 
-    /** Set setting() to character CPOSN. */
+    /** Set setting() to character CPOSN, which must be in my
+     *  alphabet. */
     void set(char cposn) {
-        _setting = alphabet().toInt(cposn);
+        int posn = alphabet().toInt(cposn);
+        if (posn < 0) {
+            throw error("'%c' is not in the alphabet", cposn);
+        }
+        _setting = posn;
     }
 
     /** Return the value of P modulo the input SIZE. */
     int mod(int p, int size) {
+        if (p >= 0 && p < size) {
+            return p;
+        } else if (p < 0 && p >= -size) {
+            return p + size;
+        }
         int r = p % size;
         if (r < 0) {
             r += size;
@@ -71,15 +85,88 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int result = _permutation.permute(p + _setting % size());
-        return mod(result - _setting, size());
+        return convertForward(p, _setting);
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation, with me at setting SETTING. */
+    int convertForward(int p, int setting) {
+        int[] table = forwardTable();
+        if (table != null) {
+            return table[setting * size() + p];
+        }
+        int result = _permutation.permute(p + setting);
+        return mod(result - setting, size());
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int result = _permutation.invert(e + _setting % size());
-        return mod(result - _setting, size());
+        return convertBackward(e, _setting);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation, with me at setting
+     *  SETTING. */
+    int convertBackward(int e, int setting) {
+        int[] table = backwardTable();
+        if (table != null) {
+            return table[setting * size() + e];
+        }
+        int result = _permutation.invert(e + setting);
+        return mod(result - setting, size());
+    }
+
+    /** Return the table of my forward conversions, in which entry
+     *  S * size() + P is convertForward(P) at setting S, or null if my
+     *  alphabet is larger than tableLimit().  The table is computed on
+     *  first use and then shared by every machine that uses me, so my
+     *  permutation must not change afterwards. */
+    int[] forwardTable() {
+        if (_forwardTable == null && size() <= _tableLimit) {
+            buildTables();
+        }
+        return _forwardTable;
+    }
+
+    /** Return the table of my backward conversions, laid out as for
+     *  forwardTable(), or null if my alphabet is larger than
+     *  tableLimit(). */
+    int[] backwardTable() {
+        if (_backwardTable == null && size() <= _tableLimit) {
+            buildTables();
+        }
+        return _backwardTable;
+    }
+
+    /** Return the largest alphabet size for which I precompute my
+     *  conversions.  This is TABLE_LIMIT unless set for me alone. */
+    int tableLimit() {
+        return _tableLimit;
+    }
+
+    /** Set tableLimit() to LIMIT for me alone, so that a LIMIT of 0 turns
+     *  my tables off.  Has no effect once my tables are built, so it is
+     *  for use while configuring me, before I am first used. */
+    void setTableLimit(int limit) {
+        _tableLimit = limit;
+    }
+
+    /** Fill in my forward and backward conversion tables. */
+    private synchronized void buildTables() {
+        if (_backwardTable != null) {
+            return;
+        }
+        int n = size();
+        int[] forward = new int[n * n], backward = new int[n * n];
+        for (int s = 0; s < n; s++) {
+            for (int p = 0; p < n; p++) {
+                forward[s * n + p] = mod(_permutation.permute(p + s) - s, n);
+                backward[s * n + p] = mod(_permutation.invert(p + s) - s, n);
+            }
+        }
+        _forwardTable = forward;
+        _backwardTable = backward;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -88,6 +175,13 @@ class Rotor {
         return false;
     }
 
+    /** Return the number of times I must be advanced from setting SETTING
+     *  before atNotch() is true, or -1 if that never happens.  By
+     *  default, I have no notches. */
+    int notchDistance(int setting) {
+        return -1;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -101,9 +195,25 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemnted by this rotor in its 0 position. */
-    private Permutation _permutation;
+    private final Permutation _permutation;
 
-    /** The setting implemented by the rotor at the current stage. */
+    /** My setting, when I am used on my own. */
     private int _setting;
 
+    /** Precomputed forward conversions, or null if not yet built. */
+    private volatile int[] _forwardTable;
+
+    /** Precomputed backward conversions, or null if not yet built. */
+    private volatile int[] _backwardTable;
+
+    /** Largest alphabet size for which I precompute conversions. */
+    private int _tableLimit = TABLE_LIMIT;
+
+    /** Default largest alphabet size for which rotors precompute their
+     *  conversions, read once from the system property enigma.tableLimit
+     *  and otherwise large enough for the byte alphabet.  Each rotor's
+     *  tables take 8 * size() * size() bytes. */
+    static final int TABLE_LIMIT =
+        Integer.getInteger("enigma.tableLimit", Alphabet.BYTES);
+
 }
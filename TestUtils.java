@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +19,29 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a machine with three moving rotors and reflectors B and C,
+     *  with its slots holding the rotors named ROTORS at SETTING and the
+     *  plugboard PLUGBOARD. */
+    static Machine navalMachine(String[] rotors, String setting,
+                                String plugboard) {
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        all.add(new Reflector("C", new Permutation(NAVALA.get("C"), UPPER)));
+        all.add(new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "Q"));
+        all.add(new MovingRotor("II",
+                                new Permutation(NAVALA.get("II"), UPPER),
+                                "E"));
+        all.add(new MovingRotor("III",
+                                new Permutation(NAVALA.get("III"), UPPER),
+                                "V"));
+        Machine machine = new Machine(UPPER, 4, 3, all);
+        machine.insertRotors(rotors);
+        machine.setRotors(setting);
+        machine.setPlugboard(new Permutation(plugboard, UPPER));
+        return machine;
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
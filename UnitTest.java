@@ -12,7 +12,9 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
 
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          MachineTest.class, CribSearchTest.class,
+                          CiphertextAttackTest.class, MainTest.class);
     }
 
 }
@@ -0,0 +1,95 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/** KeyLanes that step and convert all their lanes at once with the JDK's
+ *  incubating vector API, one vector element per lane.  Table lookups are
+ *  gathers.  Only loaded, by KeyLanes.create(), when the module
+ *  jdk.incubator.vector is present.
+ *  @author Ziyi
+ */
+class VectorKeyLanes extends KeyLanes {
+
+    /** Lanes as wide as the platform's preferred int vector. */
+    VectorKeyLanes() {
+        super(SPECIES.length());
+        _index = new int[SPECIES.length()];
+    }
+
+    @Override
+    void step() {
+        int last = _pos.length - 1;
+        VectorMask<Integer> fastMoved = SPECIES.maskAll(false);
+        for (int i = last; i > _fixed; i -= 1) {
+            VectorMask<Integer> moves =
+                IntVector.fromArray(SPECIES, _notches[i], 0, _pos[i], 0)
+                .eq(0);
+            if (i == last) {
+                fastMoved = moves;
+            }
+            advance(i, moves);
+            advance(i - 1, moves);
+        }
+        advance(last, fastMoved.not());
+    }
+
+    @Override
+    void convert(int c, int[] out) {
+        convert(IntVector.broadcast(SPECIES, c)).intoArray(out, 0);
+    }
+
+    /** Step and convert COUNT times, the j-th time converting IN[j] in
+     *  lanes 0 .. USED-1, and return a mask with bit L set iff lane L
+     *  converted every IN[j] to OUT[j].  Stops once no lane can match. */
+    @Override
+    int match(int[] in, int[] out, int count, int used) {
+        int alive = used == MAX_LANES ? -1 : (1 << used) - 1;
+        for (int j = 0; j < count && alive != 0; j += 1) {
+            step();
+            IntVector x = convert(IntVector.broadcast(SPECIES, in[j]));
+            alive &= (int) x.eq(out[j]).toLong();
+        }
+        return alive;
+    }
+
+    /** Advance the settings in slot I of the lanes selected by MOVES. */
+    private void advance(int i, VectorMask<Integer> moves) {
+        IntVector p = IntVector.fromArray(SPECIES, _pos[i], 0).add(1, moves);
+        p.blend(0, p.eq(_n)).intoArray(_pos[i], 0);
+    }
+
+    /** Return the conversions of the indices in X, lane by lane. */
+    private IntVector convert(IntVector x) {
+        int k = _pos.length;
+        for (int i = k - 1; i >= _fixed; i -= 1) {
+            x = lookup(_forward[i], i, x);
+        }
+        x = lookup(_core, x);
+        for (int i = _fixed; i < k; i += 1) {
+            x = lookup(_backward[i], i, x);
+        }
+        return x;
+    }
+
+    /** Return TABLE[_pos[I][lane] * _n + X[lane]] in each lane. */
+    private IntVector lookup(int[] table, int i, IntVector x) {
+        IntVector pos = IntVector.fromArray(SPECIES, _pos[i], 0);
+        return lookup(table, pos.mul(_n).add(x));
+    }
+
+    /** Return TABLE[INDEX[lane]] in each lane. */
+    private IntVector lookup(int[] table, IntVector index) {
+        index.intoArray(_index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, _index, 0);
+    }
+
+    /** Shape of my vectors. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED.length() <= MAX_LANES
+        ? IntVector.SPECIES_PREFERRED : IntVector.SPECIES_512;
+
+    /** Gather indices. */
+    private final int[] _index;
+}
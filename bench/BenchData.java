@@ -0,0 +1,156 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Generators of random alphabets, rotors, machines and messages for the
+ *  benchmarks.
+ *  @author Ziyi
+ */
+class BenchData {
+
+    /** Return an alphabet of SIZE characters: the upper-case letters
+     *  followed, if needed, by CJK ideographs, which have no case. */
+    static String alphabet(int size) {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            chars.append(i < LETTERS ? (char) ('A' + i)
+                         : (char) (IDEOGRAPHS + i - LETTERS));
+        }
+        return chars.toString();
+    }
+
+    /** Return a random permutation of ALPHABET in cycle notation, using
+     *  RANDOM. */
+    static String cycles(String alphabet, Random random) {
+        int n = alphabet.length();
+        int[] perm = shuffled(n, random);
+        boolean[] seen = new boolean[n];
+        StringBuilder cycles = new StringBuilder();
+        for (int k = 0; k < n; k += 1) {
+            if (!seen[k]) {
+                cycles.append('(');
+                for (int j = k; !seen[j]; j = perm[j]) {
+                    seen[j] = true;
+                    cycles.append(alphabet.charAt(j));
+                }
+                cycles.append(") ");
+            }
+        }
+        return cycles.toString();
+    }
+
+    /** Return NUMPAIRS random disjoint swaps of characters of ALPHABET in
+     *  cycle notation, using RANDOM. */
+    static String pairs(String alphabet, int numPairs, Random random) {
+        int[] order = shuffled(alphabet.length(), random);
+        StringBuilder cycles = new StringBuilder();
+        for (int k = 0; k + 1 < order.length && k < 2 * numPairs; k += 2) {
+            cycles.append('(').append(alphabet.charAt(order[k]))
+                .append(alphabet.charAt(order[k + 1])).append(") ");
+        }
+        return cycles.toString();
+    }
+
+    /** Return a machine with a random alphabet of SIZE characters and
+     *  NUMROTORS slots, PAWLS of them moving, with its rotors inserted,
+     *  set and plugged at random using a generator seeded with SEED. */
+    static Machine machine(int size, int numRotors, int pawls, long seed) {
+        Random random = new Random(seed);
+        String chars = alphabet(size);
+        Alphabet alpha = new Alphabet(chars);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        names[0] = "R";
+        rotors.add(new Reflector("R",
+            new Permutation(pairs(chars, size / 2, random), alpha)));
+        for (int i = 1; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm = new Permutation(cycles(chars, random), alpha);
+            if (i < numRotors - pawls) {
+                rotors.add(new FixedRotor(names[i], perm));
+            } else {
+                String notch = String.valueOf(chars.charAt(random.nextInt(size)));
+                rotors.add(new MovingRotor(names[i], perm, notch));
+            }
+        }
+        Machine machine = new Machine(alpha, numRotors, pawls, rotors);
+        machine.insertRotors(names);
+        StringBuilder setting = new StringBuilder();
+        for (int i = 1; i < numRotors; i += 1) {
+            setting.append(chars.charAt(random.nextInt(size)));
+        }
+        machine.setRotors(setting.toString());
+        machine.setPlugboard(new Permutation(pairs(chars, size / 4, random),
+                                             alpha));
+        return machine;
+    }
+
+    /** Return a message of LENGTH random characters of ALPHABET, with a
+     *  blank after about one in six of them, using a generator seeded
+     *  with SEED. */
+    static String message(String alphabet, int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder msg = new StringBuilder(length);
+        while (msg.length() < length) {
+            if (random.nextInt(BLANK_ODDS) == 0) {
+                msg.append(' ');
+            } else {
+                msg.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+        }
+        return msg.toString();
+    }
+
+    /** Return a configuration file for the upper-case alphabet with
+     *  NUMROTORS slots, PAWLS of them moving, using a generator seeded
+     *  with SEED.  Its rotors are named as for settings(). */
+    static String config(int numRotors, int pawls, long seed) {
+        Random random = new Random(seed);
+        String chars = alphabet(LETTERS);
+        StringBuilder config = new StringBuilder();
+        config.append(chars).append('\n');
+        config.append(numRotors).append(' ').append(pawls).append('\n');
+        config.append("R R ").append(pairs(chars, LETTERS / 2, random))
+            .append('\n');
+        for (int i = 1; i < numRotors; i += 1) {
+            config.append('R').append(i).append(' ');
+            if (i < numRotors - pawls) {
+                config.append('N');
+            } else {
+                config.append('M').append(chars.charAt(random.nextInt(LETTERS)));
+            }
+            config.append(' ').append(cycles(chars, random)).append('\n');
+        }
+        return config.toString();
+    }
+
+    /** Return a settings line for a configuration from config() with
+     *  NUMROTORS slots. */
+    static String settings(int numRotors) {
+        StringBuilder line = new StringBuilder("* R");
+        for (int i = 1; i < numRotors; i += 1) {
+            line.append(" R").append(i);
+        }
+        line.append(' ').append("AXLEBCDFGHIJ", 0, numRotors - 1);
+        return line.append(" (AB) (CD) (EF)").toString();
+    }
+
+    /** Return a random permutation of 0 .. N-1, using RANDOM. */
+    private static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int j = random.nextInt(i + 1);
+            result[i] = result[j];
+            result[j] = i;
+        }
+        return result;
+    }
+
+    /** Number of upper-case letters. */
+    private static final int LETTERS = 26;
+    /** First of the ideographs used to extend alphabets. */
+    private static final int IDEOGRAPHS = 0x4e00;
+    /** One in this many generated message characters is a blank. */
+    private static final int BLANK_ODDS = 6;
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of converting whole messages with a Machine, one character
+ *  at a time and through each of its bulk interfaces.  Scores are per
+ *  message of MESSAGELENGTH characters.  The machine is not reset between
+ *  invocations, so successive messages see successive rotor positions.
+ *  @author Ziyi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MachineBench {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256" })
+    public int alphabetSize;
+
+    /** Number of rotor slots, including the reflector. */
+    @Param({ "5", "8" })
+    public int numRotors;
+
+    /** Number of pawls (moving rotors). */
+    @Param({ "1", "3" })
+    public int pawls;
+
+    /** Number of characters in each message. */
+    @Param({ "100", "1000000" })
+    public int messageLength;
+
+    /** Build the machine and the message it converts. */
+    @Setup
+    public void setUp() {
+        _machine = BenchData.machine(alphabetSize, numRotors, pawls, SEED);
+        String chars = BenchData.alphabet(alphabetSize);
+        _message = BenchData.message(chars, messageLength, SEED)
+            .replace(" ", "");
+        _in = _message.toCharArray();
+        _out = new char[_in.length];
+        _indices = new int[_in.length];
+        for (int i = 0; i < _in.length; i += 1) {
+            _indices[i] = chars.indexOf(_in[i]);
+        }
+    }
+
+    /** Convert my message one index at a time, returning the sum of the
+     *  results. */
+    @Benchmark
+    public int convertIndex() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    /** Return my message converted as a String. */
+    @Benchmark
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** Convert my message through the char-array interface. */
+    @Benchmark
+    public void convertArray(Blackhole sink) {
+        sink.consume(_machine.convert(_in, 0, _in.length, _out, 0));
+        sink.consume(_out);
+    }
+
+    /** Convert my message through the char-array interface, split among
+     *  the threads of the common pool. */
+    @Benchmark
+    public void convertParallel(Blackhole sink) {
+        sink.consume(_machine.convert(_in, 0, _in.length, _out, 0,
+                                      ForkJoinPool.commonPool()));
+        sink.consume(_out);
+    }
+
+    /** Seed for generating the machine and message. */
+    private static final long SEED = 61;
+
+    /** The machine being measured. */
+    private Machine _machine;
+    /** The message, without blanks. */
+    private String _message;
+    /** The message as an array. */
+    private char[] _in;
+    /** Destination of array conversions. */
+    private char[] _out;
+    /** Alphabet indices of the message's characters. */
+    private int[] _indices;
+}
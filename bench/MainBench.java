@@ -0,0 +1,106 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** End-to-end benchmarks of Main: reading a configuration file, setting
+ *  up the machine, and converting and writing an input file, in each of
+ *  the input modes.  Scores are per run of Main.
+ *  @author Ziyi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MainBench {
+
+    /** Number of rotor slots, including the reflector. */
+    @Param({ "5", "8" })
+    public int numRotors;
+
+    /** Number of pawls (moving rotors). */
+    @Param({ "3" })
+    public int pawls;
+
+    /** Approximate number of characters of input. */
+    @Param({ "1000", "10000000" })
+    public int messageLength;
+
+    /** Input mode: blank for the default, or a Main option. */
+    @Param({ "", "--stream", "--mmap" })
+    public String mode;
+
+    /** Write the configuration and input files. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("enigma-bench");
+        _config = _dir.resolve("bench.conf");
+        _input = _dir.resolve("bench.in");
+        _output = _dir.resolve("bench.out");
+        Files.write(_config, BenchData.config(numRotors, pawls, SEED)
+                    .getBytes(StandardCharsets.US_ASCII));
+        String letters = BenchData.alphabet(LETTERS);
+        StringBuilder input = new StringBuilder();
+        input.append(BenchData.settings(numRotors)).append('\n');
+        String message = BenchData.message(letters, messageLength, SEED);
+        for (int k = 0; k < message.length(); k += LINE_LENGTH) {
+            input.append(message, k,
+                         Math.min(message.length(), k + LINE_LENGTH))
+                .append('\n');
+        }
+        Files.write(_input, input.toString()
+                    .getBytes(StandardCharsets.US_ASCII));
+        _args = mode.isEmpty()
+            ? new String[] { _config.toString(), _input.toString(),
+                             _output.toString() }
+            : new String[] { mode, _config.toString(), _input.toString(),
+                             _output.toString() };
+    }
+
+    /** Remove the files written by setUp and run. */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_config);
+        Files.deleteIfExists(_input);
+        Files.deleteIfExists(_output);
+        Files.deleteIfExists(_dir);
+    }
+
+    /** Run Main on my files. */
+    @Benchmark
+    public void run() {
+        Main.main(_args);
+    }
+
+    /** Number of upper-case letters. */
+    private static final int LETTERS = 26;
+    /** Number of characters in each input line. */
+    private static final int LINE_LENGTH = 72;
+    /** Seed for generating the configuration and input. */
+    private static final long SEED = 61;
+
+    /** Temporary directory holding my files. */
+    private Path _dir;
+    /** Configuration file. */
+    private Path _config;
+    /** Input file. */
+    private Path _input;
+    /** Output file. */
+    private Path _output;
+    /** Arguments to Main. */
+    private String[] _args;
+}
@@ -0,0 +1,89 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of single lookups in a Permutation.  Each invocation
+ *  performs PROBES lookups, so scores are per lookup.
+ *  @author Ziyi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermutationBench {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "64", "256", "4096" })
+    public int alphabetSize;
+
+    /** Build a random permutation and the indices and characters looked
+     *  up in it. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        String chars = BenchData.alphabet(alphabetSize);
+        _perm = new Permutation(BenchData.cycles(chars, random),
+                                new Alphabet(chars));
+        _indices = new int[PROBES];
+        _chars = new char[PROBES];
+        for (int i = 0; i < PROBES; i += 1) {
+            _indices[i] = random.nextInt(alphabetSize);
+            _chars[i] = chars.charAt(_indices[i]);
+        }
+    }
+
+    /** Return the sum of the images of my indices. */
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int permute() {
+        int sum = 0;
+        for (int p : _indices) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Return the sum of the inverse images of my indices. */
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int invert() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _perm.invert(c);
+        }
+        return sum;
+    }
+
+    /** Return the sum of the images of my characters. */
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int permuteChar() {
+        int sum = 0;
+        for (char p : _chars) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Number of lookups in each invocation. */
+    static final int PROBES = 1024;
+    /** Seed for generating the permutation and probes. */
+    private static final long SEED = 61;
+
+    /** The permutation being measured. */
+    private Permutation _perm;
+    /** Indices looked up. */
+    private int[] _indices;
+    /** Characters looked up. */
+    private char[] _chars;
+}
@@ -0,0 +1,83 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of conversions through a single rotor at a fixed setting,
+ *  with and without its precomputed tables.  Each invocation performs
+ *  PROBES conversions, so scores are per conversion.
+ *  @author Ziyi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RotorBench {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "64", "256", "4096" })
+    public int alphabetSize;
+
+    /** True iff the rotor may precompute its tables. */
+    @Param({ "true", "false" })
+    public boolean tables;
+
+    /** Build a random moving rotor at a random setting and the indices
+     *  converted by it. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SEED);
+        String chars = BenchData.alphabet(alphabetSize);
+        Permutation perm = new Permutation(BenchData.cycles(chars, random),
+                                           new Alphabet(chars));
+        _rotor = new MovingRotor("R", perm, chars.substring(0, 1));
+        _rotor.setTableLimit(tables ? Integer.MAX_VALUE : 0);
+        _rotor.set(random.nextInt(alphabetSize));
+        _indices = new int[PROBES];
+        for (int i = 0; i < PROBES; i += 1) {
+            _indices[i] = random.nextInt(alphabetSize);
+        }
+    }
+
+    /** Return the sum of the forward conversions of my indices. */
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int convertForward() {
+        int sum = 0;
+        for (int p : _indices) {
+            sum += _rotor.convertForward(p);
+        }
+        return sum;
+    }
+
+    /** Return the sum of the backward conversions of my indices. */
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int convertBackward() {
+        int sum = 0;
+        for (int e : _indices) {
+            sum += _rotor.convertBackward(e);
+        }
+        return sum;
+    }
+
+    /** Number of conversions in each invocation. */
+    static final int PROBES = 1024;
+    /** Seed for generating the rotor and probes. */
+    private static final long SEED = 61;
+
+    /** The rotor being measured. */
+    private Rotor _rotor;
+    /** Indices converted. */
+    private int[] _indices;
+}